@@ -0,0 +1,68 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package at.yawk.cricket.template;
+
+import com.github.jknack.handlebars.Context;
+import com.github.jknack.handlebars.Template;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Handlebars template application on already bound arguments.
+ *
+ * @author yawkat
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class ApplyBenchmark {
+    @Param({ "chat", "ticket", "listing" })
+    public String template;
+
+    private Template compiled;
+    private TemplateProgram program;
+    private Context context;
+
+    @Setup
+    public void setUp() throws IOException {
+        TemplateManager manager = Fixtures.createManager();
+        compiled = manager.getTemplate(template).getTemplate();
+        program = manager.getTemplate(template).getProgram();
+        context = Context.newContext(manager.bind(Fixtures.arguments(template)));
+
+        if (program == null) {
+            throw new IllegalStateException("Template " + template + " was not compiled");
+        }
+        if (!program.apply(context).equals(compiled.apply(context))) {
+            throw new IllegalStateException("Compiled output differs for " + template);
+        }
+    }
+
+    @Benchmark
+    public String apply() throws IOException {
+        return compiled.apply(context);
+    }
+
+    @Benchmark
+    public String applyCompiled() throws IOException {
+        return program.apply(context);
+    }
+}
@@ -0,0 +1,55 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package at.yawk.cricket.template;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Binding of template arguments to the handlebars input map, with direct binding and with the jackson round trip.
+ *
+ * @author yawkat
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class BindingBenchmark {
+    @Param({ "chat", "ticket", "listing" })
+    public String template;
+
+    @Param({ "true", "false" })
+    public boolean directBinding;
+
+    private TemplateManager manager;
+    private Object[] arguments;
+
+    @Setup
+    public void setUp() {
+        manager = Fixtures.createManager();
+        manager.setDirectBinding(directBinding);
+        arguments = Fixtures.arguments(template);
+    }
+
+    @Benchmark
+    public Object bind() throws IOException {
+        return manager.bind(arguments);
+    }
+}
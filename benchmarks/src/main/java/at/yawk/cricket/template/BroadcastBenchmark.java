@@ -0,0 +1,75 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package at.yawk.cricket.template;
+
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Rendering one chat line for 500 recipients in a few different time zones and channels, once with a {@code format}
+ * call per recipient and once with a single batch.
+ *
+ * @author yawkat
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class BroadcastBenchmark {
+    private static final String[] ZONES = { "UTC", "Europe/Berlin", "America/New_York", "Asia/Tokyo" };
+
+    @Param({ "false", "true" })
+    public boolean compiledMarkup;
+
+    private TemplateManager manager;
+    private Object[] arguments;
+    private List<Recipient> recipients;
+
+    @Setup
+    public void setUp() {
+        manager = Fixtures.createManager();
+        manager.setCompiledMarkup(compiledMarkup);
+        arguments = Fixtures.arguments("chat");
+        recipients = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            recipients.add(Recipient.of(ZoneId.of(ZONES[i % ZONES.length]),
+                                        Collections.singletonMap("channel", i % 7 == 0 ? "Staff" : "Global")));
+        }
+        batch();
+    }
+
+    @Benchmark
+    public Object individual() {
+        List<Object> results = new ArrayList<>(recipients.size());
+        for (Recipient recipient : recipients) {
+            results.add(TimeZoneHolder.withZone(recipient.getZone(), () -> manager.format(
+                    "chat", MinecraftMarkupConverter.getInstance(), arguments[0], recipient.getArgs()[0])));
+        }
+        return results;
+    }
+
+    @Benchmark
+    public Object batch() {
+        return manager.formatBatch("chat", MinecraftMarkupConverter.getInstance(), recipients, arguments);
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package at.yawk.cricket.template;
+
+import com.github.jknack.handlebars.Handlebars;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Building and minimizing the component tree ({@code ComponentNode.build}) without parsing: the parse events of the
+ * rendered markup are recorded once and replayed into a fresh converter handler for each operation.
+ *
+ * @author yawkat
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class BuildBenchmark {
+    private static final String[] NO_VALUES = new String[0];
+
+    @Param({ "chat", "ticket", "listing" })
+    public String template;
+
+    private MarkupSkeleton events;
+    private MinecraftMarkupConverter internedConverter;
+
+    @Setup
+    public void setUp() throws IOException {
+        String xml = Fixtures.createManager().formatXml(template, Fixtures.arguments(template));
+        // rendered markup has no handlebars expressions, so the skeleton is just the recorded parse events
+        events = MarkupSkeleton.compile(new Handlebars(), xml);
+        if (events == null) {
+            throw new IllegalStateException("Could not record the parse events of " + template);
+        }
+        internedConverter = MinecraftMarkupConverter.getPooledInstance().withInterner(new ComponentInterner());
+    }
+
+    @Benchmark
+    public Object build() throws IOException {
+        return events.replay(NO_VALUES, MinecraftMarkupConverter.getInstance().createHandler());
+    }
+
+    @Benchmark
+    public Object buildPooled() throws IOException {
+        return events.replay(NO_VALUES, MinecraftMarkupConverter.getPooledInstance().createHandler());
+    }
+
+    @Benchmark
+    public Object buildInterned() throws IOException {
+        return events.replay(NO_VALUES, internedConverter.createHandler());
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package at.yawk.cricket.template;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Conversion of rendered markup. For the component converters this is parsing plus building and minimizing the
+ * component tree ({@code ComponentNode.build}). {@link BuildBenchmark} measures the build cost alone.
+ *
+ * @author yawkat
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class ConvertBenchmark {
+    @Param({ "chat", "ticket", "listing" })
+    public String template;
+
+    private String xml;
+    private MinecraftMarkupConverter internedConverter;
+
+    @Setup
+    public void setUp() {
+        xml = Fixtures.createManager().formatXml(template, Fixtures.arguments(template));
+        internedConverter = MinecraftMarkupConverter.getPooledInstance().withInterner(new ComponentInterner());
+
+        // the direct legacy converter must produce exactly what converting the components produces
+        List<String> expected = MinecraftLegacyMarkupConverter.COMPONENT_INSTANCE.convert(xml);
+        List<String> actual = MinecraftLegacyMarkupConverter.getInstance().convert(xml);
+        if (!expected.equals(actual)) {
+            throw new IllegalStateException(
+                    "Legacy output differs for " + template + ": " + actual + " != " + expected);
+        }
+    }
+
+    @Benchmark
+    public Object minecraft() {
+        return MinecraftMarkupConverter.getInstance().convert(xml);
+    }
+
+    @Benchmark
+    public Object minecraftPooled() {
+        return MinecraftMarkupConverter.getPooledInstance().convert(xml);
+    }
+
+    @Benchmark
+    public Object minecraftInterned() {
+        return internedConverter.convert(xml);
+    }
+
+    @Benchmark
+    public Object minecraftLinefeeds() {
+        return MinecraftMarkupConverter.getInstanceWithLinefeeds().convert(xml);
+    }
+
+    @Benchmark
+    public Object legacy() {
+        return MinecraftLegacyMarkupConverter.getInstance().convert(xml);
+    }
+
+    @Benchmark
+    public Object legacyComponents() {
+        return MinecraftLegacyMarkupConverter.COMPONENT_INSTANCE.convert(xml);
+    }
+
+    @Benchmark
+    public Object json() {
+        return MinecraftJsonMarkupConverter.getInstance().convert(xml);
+    }
+}
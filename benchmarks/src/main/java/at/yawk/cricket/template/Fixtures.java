@@ -0,0 +1,135 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package at.yawk.cricket.template;
+
+import com.fasterxml.jackson.databind.SerializationFeature;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Templates and template arguments shared by the benchmarks. The benchmarks live in the library package so they can
+ * measure package-private stages of the render path directly.
+ *
+ * The fixture templates in {@code /bench} range from a single chat line ({@code chat}) over a detail view with nested
+ * styles, events and a short list ({@code ticket}) to a listing with one hover/click line per entry
+ * ({@code listing}).
+ *
+ * @author yawkat
+ */
+final class Fixtures {
+    private static final Instant NOW = Instant.parse("2015-10-18T10:15:30Z");
+
+    private Fixtures() {}
+
+    static TemplateManager createManager() {
+        try {
+            TemplateManager manager = new TemplateManager(Files.createTempDirectory("cricket-template-bench"),
+                                                          "/bench",
+                                                          Fixtures.class);
+            manager.getObjectMapper().disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
+            return manager;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    static Object[] arguments(String template) {
+        Map<String, Object> args = new HashMap<>();
+        switch (template) {
+        case "chat":
+            args.put("channel", "Global");
+            args.put("sender", new User("yawkat", NOW.minusSeconds(86400 * 400)));
+            args.put("message", "Does anyone know where the spawn portal went? It was right next to the fountain.");
+            break;
+        case "ticket":
+            args.put("ticket", ticket(4711, 6));
+            break;
+        case "listing":
+            List<Ticket> tickets = new ArrayList<>();
+            for (int i = 0; i < 25; i++) {
+                tickets.add(ticket(4000 + i, 0));
+            }
+            args.put("tickets", tickets);
+            args.put("count", tickets.size());
+            break;
+        default:
+            throw new IllegalArgumentException(template);
+        }
+        return new Object[]{ args };
+    }
+
+    private static Ticket ticket(int id, int commentCount) {
+        List<Comment> comments = new ArrayList<>();
+        for (int i = 0; i < commentCount; i++) {
+            comments.add(new Comment(i % 3 == 0 ? "Moderator" : "Player" + i,
+                                     i % 3 == 0,
+                                     "Comment number " + i + " with a few words of text."));
+        }
+        return new Ticket(id,
+                          id % 4 == 0 ? "CLOSED" : "OPEN",
+                          new User("Player" + id, NOW.minusSeconds(86400 * (id % 100))),
+                          NOW.minusSeconds(60 * (id % 1000)),
+                          "My house was griefed near the lake, please have a look at it.",
+                          id % 5 == 0,
+                          Collections.unmodifiableList(comments));
+    }
+
+    public static class User {
+        public final String name;
+        public final Instant joined;
+
+        User(String name, Instant joined) {
+            this.name = name;
+            this.joined = joined;
+        }
+    }
+
+    public static class Comment {
+        public final String author;
+        public final boolean staff;
+        public final String text;
+
+        Comment(String author, boolean staff, String text) {
+            this.author = author;
+            this.staff = staff;
+            this.text = text;
+        }
+    }
+
+    public static class Ticket {
+        public final int id;
+        public final String status;
+        public final User creator;
+        public final Instant created;
+        public final String message;
+        public final boolean urgent;
+        public final List<Comment> comments;
+
+        Ticket(int id,
+               String status,
+               User creator,
+               Instant created,
+               String message,
+               boolean urgent,
+               List<Comment> comments) {
+            this.id = id;
+            this.status = status;
+            this.creator = creator;
+            this.created = created;
+            this.message = message;
+            this.urgent = urgent;
+            this.comments = comments;
+        }
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package at.yawk.cricket.template;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Full render path: argument binding, handlebars, markup parsing and conversion.
+ *
+ * @author yawkat
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class FormatBenchmark {
+    @Param({ "chat", "ticket", "listing" })
+    public String template;
+
+    @Param({ "xml", "minecraft", "minecraftPooled", "minecraftLinefeeds", "legacy", "json" })
+    public String converter;
+
+    private TemplateManager manager;
+    private MarkupConverter<?> markupConverter;
+    private Object[] arguments;
+
+    @Setup
+    public void setUp() {
+        manager = Fixtures.createManager();
+        arguments = Fixtures.arguments(template);
+        switch (converter) {
+        case "xml":
+            markupConverter = XmlMarkupConverter.getInstance();
+            break;
+        case "minecraft":
+            markupConverter = MinecraftMarkupConverter.getInstance();
+            break;
+        case "minecraftPooled":
+            markupConverter = MinecraftMarkupConverter.getPooledInstance();
+            break;
+        case "minecraftLinefeeds":
+            markupConverter = MinecraftMarkupConverter.getInstanceWithLinefeeds();
+            break;
+        case "legacy":
+            markupConverter = MinecraftLegacyMarkupConverter.getInstance();
+            break;
+        case "json":
+            markupConverter = MinecraftJsonMarkupConverter.getInstance();
+            break;
+        default:
+            throw new IllegalArgumentException(converter);
+        }
+        // load and compile outside of the measurement
+        format();
+    }
+
+    @Benchmark
+    public Object format() {
+        return manager.format(template, markupConverter, arguments);
+    }
+}
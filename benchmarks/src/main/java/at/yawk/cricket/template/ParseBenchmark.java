@@ -0,0 +1,78 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package at.yawk.cricket.template;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * Markup parsing of rendered templates with the lexer and with TagSoup, without conversion.
+ *
+ * @author yawkat
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class ParseBenchmark {
+    @Param({ "chat", "ticket", "listing" })
+    public String template;
+
+    private String xml;
+
+    @Setup
+    public void setUp() {
+        xml = Fixtures.createManager().formatXml(template, Fixtures.arguments(template));
+    }
+
+    @Benchmark
+    public Object lexer(Blackhole blackhole) throws IOException, SAXException {
+        return MarkupLexer.parse(xml, () -> new ConsumingHandler(blackhole));
+    }
+
+    @Benchmark
+    public Object tagSoup(Blackhole blackhole) throws IOException, SAXException {
+        return MarkupLexer.parseTagSoup(new StringReader(xml), new ConsumingHandler(blackhole));
+    }
+
+    private static class ConsumingHandler extends DefaultHandler {
+        private final Blackhole blackhole;
+
+        ConsumingHandler(Blackhole blackhole) {
+            this.blackhole = blackhole;
+        }
+
+        @Override
+        public void startElement(String uri, String localName, String qName, Attributes attributes) {
+            blackhole.consume(qName);
+            blackhole.consume(attributes);
+        }
+
+        @Override
+        public void characters(char[] ch, int start, int length) {
+            blackhole.consume(ch);
+        }
+    }
+}
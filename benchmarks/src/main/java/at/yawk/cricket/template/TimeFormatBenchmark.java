@@ -0,0 +1,66 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package at.yawk.cricket.template;
+
+import com.github.jknack.handlebars.Context;
+import com.github.jknack.handlebars.Handlebars;
+import com.github.jknack.handlebars.Template;
+import java.io.IOException;
+import java.time.Instant;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The {@code time} helper for each supported string input format, and for an {@link Instant} passed directly.
+ *
+ * @author yawkat
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class TimeFormatBenchmark {
+    @Param({ "2015-10-18T10:15:30Z", "2015-10-18T12:15:30+02:00", "2015-10-18T12:15:30+02:00[Europe/Berlin]" })
+    public String input;
+
+    private Template template;
+    private Context context;
+    private Context instantContext;
+
+    @Setup
+    public void setUp() throws IOException {
+        Handlebars handlebars = new Handlebars();
+        handlebars.registerHelper("time", TimeFormatHelper.getInstance());
+        template = handlebars.compileInline("{{time value \"yyyy-MM-dd HH:mm\"}}");
+        context = Context.newContext(Collections.singletonMap("value", input));
+        instantContext =
+                Context.newContext(Collections.singletonMap("value", TimeFormatHelper.parse(input).toInstant()));
+    }
+
+    @Benchmark
+    public String format() throws IOException {
+        return template.apply(context);
+    }
+
+    @Benchmark
+    public String formatInstant() throws IOException {
+        return template.apply(instantContext);
+    }
+}
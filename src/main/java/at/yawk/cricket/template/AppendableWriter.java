@@ -0,0 +1,71 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package at.yawk.cricket.template;
+
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.Writer;
+import lombok.RequiredArgsConstructor;
+
+/**
+ * Writer that forwards to an {@link Appendable}.
+ *
+ * @author yawkat
+ */
+@RequiredArgsConstructor
+class AppendableWriter extends Writer {
+    private final Appendable out;
+
+    static Writer of(Appendable out) {
+        return out instanceof Writer ? (Writer) out : new AppendableWriter(out);
+    }
+
+    @Override
+    public void write(int c) throws IOException {
+        out.append((char) c);
+    }
+
+    @Override
+    public void write(char[] cbuf, int off, int len) throws IOException {
+        if (out instanceof StringBuilder) {
+            ((StringBuilder) out).append(cbuf, off, len);
+        } else {
+            for (int i = 0; i < len; i++) {
+                out.append(cbuf[off + i]);
+            }
+        }
+    }
+
+    @Override
+    public void write(String str, int off, int len) throws IOException {
+        out.append(str, off, off + len);
+    }
+
+    @Override
+    public Writer append(CharSequence csq) throws IOException {
+        out.append(csq);
+        return this;
+    }
+
+    @Override
+    public Writer append(CharSequence csq, int start, int end) throws IOException {
+        out.append(csq, start, end);
+        return this;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        if (out instanceof Flushable) {
+            ((Flushable) out).flush();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        flush();
+    }
+}
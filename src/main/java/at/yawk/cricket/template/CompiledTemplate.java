@@ -0,0 +1,29 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package at.yawk.cricket.template;
+
+import com.github.jknack.handlebars.Template;
+import lombok.Value;
+
+/**
+ * A loaded template: the handlebars template, its compiled program and, if the template supports it, its precompiled
+ * markup skeleton.
+ *
+ * @author yawkat
+ */
+@Value
+class CompiledTemplate {
+    Template template;
+    /**
+     * May be null.
+     */
+    TemplateProgram program;
+    /**
+     * May be null.
+     */
+    MarkupSkeleton skeleton;
+}
@@ -0,0 +1,249 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package at.yawk.cricket.template;
+
+import at.yawk.mcomponent.BaseComponent;
+import at.yawk.mcomponent.Component;
+import at.yawk.mcomponent.ComponentMinimizer;
+import at.yawk.mcomponent.ComponentValue;
+import at.yawk.mcomponent.action.Event;
+import at.yawk.mcomponent.style.Style;
+import java.lang.ref.WeakReference;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded cache of immutable component fragments (components, events and styles) that lets identical fragments of
+ * different renders share one instance. Can be passed to
+ * {@link MinecraftMarkupConverter#withInterner(ComponentInterner)}.
+ *
+ * The cache is a fixed-size hash table where a new entry replaces whatever occupied its slot, so lookups and inserts
+ * never lock. Values are only weakly referenced and disappear once no render result uses them anymore. Components are
+ * interned bottom-up by their parts and stored in their minimized form, so a cache hit also skips building and
+ * {@link ComponentMinimizer minimizing} them.
+ *
+ * @author yawkat
+ */
+public class ComponentInterner {
+    private final AtomicReferenceArray<Entry> table;
+    private final int mask;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * Create an interner with 4096 slots.
+     */
+    public ComponentInterner() {
+        this(4096);
+    }
+
+    /**
+     * @param maximumSize Maximum number of fragments to hold. Rounded up to a power of two.
+     */
+    public ComponentInterner(int maximumSize) {
+        if (maximumSize < 1 || maximumSize > 1 << 30) {
+            throw new IllegalArgumentException("maximumSize out of range");
+        }
+        int size = Integer.highestOneBit(maximumSize);
+        if (size < maximumSize) {
+            size <<= 1;
+        }
+        table = new AtomicReferenceArray<>(size);
+        mask = size - 1;
+    }
+
+    private static int spread(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+
+    /**
+     * Get the value stored for the given key, or null. Keys must not strongly reference the value they are stored
+     * with, or it is never collected.
+     */
+    Object get(Object key) {
+        int hash = spread(key.hashCode());
+        Entry entry = table.get(hash & mask);
+        if (entry != null && entry.hash == hash) {
+            Object value = entry.get();
+            if (value != null && (entry.key == null ? value : entry.key).equals(key)) {
+                hits.increment();
+                return value;
+            }
+        }
+        misses.increment();
+        return null;
+    }
+
+    void put(Object key, Object value) {
+        int hash = spread(key.hashCode());
+        table.set(hash & mask, new Entry(hash, key == value ? null : key, value));
+    }
+
+    /**
+     * Return the shared instance equal to the given value, storing the value if there is none.
+     */
+    @SuppressWarnings("unchecked")
+    <T> T intern(T value) {
+        Object shared = get(value);
+        if (shared == null) {
+            put(value, value);
+            return value;
+        }
+        return (T) shared;
+    }
+
+    /**
+     * Return the shared minimized component with the given parts, building, minimizing and storing it if there is none.
+     *
+     * Components are interned bottom-up, so the children and events are expected to be shared instances from this
+     * interner already. They are compared by identity, which keeps the cost of a lookup independent of the size of the
+     * subtree: a child that is equal but not the shared instance only causes a miss.
+     */
+    Component minimize(ComponentValue value, List<Component> children, Style style, Set<Event> events) {
+        PartsKey key = new PartsKey(value, children.toArray(), style, events.toArray());
+        Component minimized = (Component) get(key);
+        if (minimized == null) {
+            minimized = ComponentMinimizer.minimizeOne(new BaseComponent(value, children, style, events));
+            put(key.weaken(), minimized);
+        }
+        return minimized;
+    }
+
+    /**
+     * Remove all fragments from this interner.
+     */
+    public void clear() {
+        for (int i = 0; i < table.length(); i++) {
+            table.set(i, null);
+        }
+    }
+
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    /**
+     * Key of a component by the parts it is built from. Children and events are compared by identity and hashed by
+     * their identity hash, so the hash is computed once per key and does not walk the subtree. Stored keys reference
+     * children and events weakly: a key then cannot keep the component it maps to alive, and a key whose parts were
+     * collected can never match a lookup again.
+     */
+    private static final class PartsKey {
+        private final ComponentValue value;
+        private final Style style;
+        /**
+         * The children, or {@link WeakReference}s to them in stored keys.
+         */
+        private final Object[] children;
+        /**
+         * The events, or {@link WeakReference}s to them in stored keys.
+         */
+        private final Object[] events;
+        private final int hash;
+
+        PartsKey(ComponentValue value, Object[] children, Style style, Object[] events) {
+            this.value = value;
+            this.style = style;
+            this.children = children;
+            this.events = events;
+            int hash = value.hashCode() * 31 + style.hashCode();
+            for (Object child : children) {
+                hash = hash * 31 + System.identityHashCode(child);
+            }
+            // events are unordered
+            for (Object event : events) {
+                hash += System.identityHashCode(event);
+            }
+            this.hash = hash;
+        }
+
+        private PartsKey(PartsKey strong) {
+            value = strong.value;
+            style = strong.style;
+            children = new Object[strong.children.length];
+            for (int i = 0; i < children.length; i++) {
+                children[i] = new WeakReference<>(strong.children[i]);
+            }
+            events = new Object[strong.events.length];
+            for (int i = 0; i < events.length; i++) {
+                events[i] = new WeakReference<>(strong.events[i]);
+            }
+            hash = strong.hash;
+        }
+
+        /**
+         * Return a copy of this key that only weakly references the children and events, to be stored.
+         */
+        PartsKey weaken() {
+            return new PartsKey(this);
+        }
+
+        private static Object deref(Object part) {
+            return part instanceof WeakReference ? ((WeakReference<?>) part).get() : part;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) { return true; }
+            if (!(o instanceof PartsKey)) { return false; }
+            PartsKey other = (PartsKey) o;
+            if (hash != other.hash ||
+                children.length != other.children.length ||
+                events.length != other.events.length ||
+                !value.equals(other.value) ||
+                !style.equals(other.style)) {
+                return false;
+            }
+            for (int i = 0; i < children.length; i++) {
+                Object child = deref(children[i]);
+                if (child == null || child != deref(other.children[i])) {
+                    return false;
+                }
+            }
+            outer:
+            for (Object part : events) {
+                Object event = deref(part);
+                if (event == null) {
+                    return false;
+                }
+                for (Object otherPart : other.events) {
+                    if (event == deref(otherPart)) {
+                        continue outer;
+                    }
+                }
+                return false;
+            }
+            return true;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    private static class Entry extends WeakReference<Object> {
+        final int hash;
+        /**
+         * The key, or null if the key is the value itself. In that case the key must only be weakly referenced too.
+         */
+        final Object key;
+
+        Entry(int hash, Object key, Object value) {
+            super(value);
+            this.hash = hash;
+            this.key = key;
+        }
+    }
+}
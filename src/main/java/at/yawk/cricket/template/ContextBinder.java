@@ -0,0 +1,425 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package at.yawk.cricket.template;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.databind.AnnotationIntrospector;
+import com.fasterxml.jackson.databind.BeanDescription;
+import com.fasterxml.jackson.databind.JsonMappingException;
+import com.fasterxml.jackson.databind.JsonSerializer;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationConfig;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.introspect.AnnotatedMember;
+import com.fasterxml.jackson.databind.ser.BeanPropertyWriter;
+import com.fasterxml.jackson.databind.ser.BeanSerializer;
+import com.fasterxml.jackson.databind.ser.DefaultSerializerProvider;
+import com.fasterxml.jackson.databind.ser.PropertyWriter;
+import com.fasterxml.jackson.databind.ser.impl.IndexedListSerializer;
+import com.fasterxml.jackson.databind.ser.std.CollectionSerializer;
+import com.fasterxml.jackson.databind.ser.std.MapSerializer;
+import com.fasterxml.jackson.databind.ser.std.ObjectArraySerializer;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+import lombok.RequiredArgsConstructor;
+
+/**
+ * Binds template arguments to a handlebars context without serializing them to an intermediate token stream.
+ *
+ * The binder keeps a per-class accessor model derived from the serializers the {@link ObjectMapper} would use, so
+ * jackson annotations (property names, ignored properties, null inclusion) apply as before. Values that the model
+ * cannot represent exactly (custom serializers, {@code java.time} values rendered by the {@code JavaTimeModule},
+ * polymorphic types, ...) are converted individually through the object mapper, which keeps template output identical
+ * to the old round trip through a {@link Map}.
+ *
+ * The model is cached on first use of a class, so the object mapper should not be reconfigured afterwards.
+ *
+ * {@link Iterator}, {@link Stream} and {@link PageSource} values are bound lazily: their elements are only read and
+ * bound when a template iterates them. Elements that were read are kept, so the value can be iterated again, also
+ * from other threads.
+ *
+ * @author yawkat
+ */
+@RequiredArgsConstructor
+class ContextBinder {
+    /**
+     * Types that jackson reads back as an equal value.
+     */
+    private static final Set<Class<?>> IDENTITY_TYPES = new HashSet<>(Arrays.asList(
+            String.class, Boolean.class, Short.class, Integer.class, Long.class, Double.class
+    ));
+
+    private final ObjectMapper objectMapper;
+    private final Map<Class<?>, TypeModel> models = new ConcurrentHashMap<>();
+
+    /**
+     * Bind the given template arguments to a single map that can be used as the handlebars context. Properties of later
+     * arguments replace those of earlier ones.
+     */
+    public Map<Object, Object> bindMap(Object... args) throws IOException {
+        return bindMap(null, args);
+    }
+
+    /**
+     * Like {@link #bindMap(Object...)}, but page sources that are properties of the arguments only yield the rows of
+     * the given window. Page sources nested deeper, for example in the rows of another page source, are bound
+     * completely and do not count towards {@link PageWindow#totalRows}.
+     *
+     * @param window The window, or null to bind all rows.
+     */
+    public Map<Object, Object> bindMap(PageWindow window, Object... args) throws IOException {
+        BoundArguments mappedArgs = new BoundArguments();
+        if (args != null) {
+            DefaultSerializerProvider provider = createProvider();
+            for (Object arg : args) {
+                TypeModel model = arg == null ? null : getModel(provider, arg.getClass());
+                if (model != null && model.kind == Kind.BEAN) {
+                    bindBean(provider, model, arg, mappedArgs, window);
+                } else if (model != null && model.kind == Kind.MAP && stringKeys((Map<?, ?>) arg)) {
+                    bindMap(provider, (Map<?, ?>) arg, mappedArgs, window);
+                } else {
+                    mappedArgs.putAll(roundTrip(arg, Map.class));
+                }
+            }
+            // the provider is created for each call, so it only records the lazy values of these arguments
+            mappedArgs.lazy = provider.getAttribute(LazyIterable.class) != null;
+        }
+        return mappedArgs;
+    }
+
+    /**
+     * Whether the given map from {@link #bindMap(PageWindow, Object...)} contains lazily bound values. Those compare
+     * by identity, so such arguments are never equal to the arguments of another render.
+     */
+    static boolean hasLazyValues(Map<?, ?> boundArguments) {
+        return boundArguments instanceof BoundArguments && ((BoundArguments) boundArguments).lazy;
+    }
+
+    private DefaultSerializerProvider createProvider() {
+        return ((DefaultSerializerProvider) objectMapper.getSerializerProvider())
+                .createInstance(objectMapper.getSerializationConfig(), objectMapper.getSerializerFactory());
+    }
+
+    /**
+     * @param window The window of page sources, or null to bind all rows.
+     */
+    private Object bindValue(DefaultSerializerProvider provider, Object value, PageWindow window) throws IOException {
+        if (value == null || IDENTITY_TYPES.contains(value.getClass())) {
+            return value;
+        }
+        // jackson widens these when reading them back
+        if (value instanceof Float) {
+            return ((Float) value).doubleValue();
+        }
+        if (value instanceof Byte) {
+            return ((Byte) value).intValue();
+        }
+        if (value instanceof Character) {
+            return value.toString();
+        }
+        if (value instanceof Iterator) {
+            return new LazyIterable(provider, (Iterator<?>) value, Integer.MAX_VALUE);
+        }
+        if (value instanceof Stream) {
+            return new LazyIterable(provider, ((Stream<?>) value).iterator(), Integer.MAX_VALUE);
+        }
+        if (value instanceof PageSource) {
+            PageSource<?> source = (PageSource<?>) value;
+            if (window == null) {
+                return new LazyIterable(provider, source.iterator(0), Integer.MAX_VALUE);
+            }
+            int size = source.size();
+            window.totalRows = Math.max(window.totalRows, size);
+            return new LazyIterable(provider, source.iterator(Math.min(window.offset, size)), window.limit);
+        }
+        TypeModel model = getModel(provider, value.getClass());
+        switch (model.kind) {
+        case BEAN:
+            Map<Object, Object> bean = new LinkedHashMap<>();
+            bindBean(provider, model, value, bean, null);
+            return bean;
+        case MAP:
+            Map<?, ?> map = (Map<?, ?>) value;
+            if (!stringKeys(map)) {
+                return roundTrip(value, Object.class);
+            }
+            Map<Object, Object> boundMap = new LinkedHashMap<>();
+            bindMap(provider, map, boundMap, null);
+            return boundMap;
+        case LIST:
+            Collection<?> collection = value instanceof Collection ?
+                    (Collection<?>) value :
+                    Arrays.asList((Object[]) value);
+            List<Object> list = new ArrayList<>(collection.size());
+            for (Object item : collection) {
+                list.add(bindValue(provider, item, null));
+            }
+            return list;
+        default:
+            return roundTrip(value, Object.class);
+        }
+    }
+
+    private void bindBean(DefaultSerializerProvider provider,
+                          TypeModel model,
+                          Object bean,
+                          Map<Object, Object> target,
+                          PageWindow window) throws IOException {
+        for (PropertyModel property : model.properties) {
+            if (!property.plain) {
+                // let jackson write this property on its own so formats and inclusion rules are honored
+                try (TokenBuffer buffer = new TokenBuffer(objectMapper, false)) {
+                    buffer.writeStartObject();
+                    try {
+                        property.writer.serializeAsField(bean, buffer, provider);
+                    } catch (IOException | RuntimeException e) {
+                        throw e;
+                    } catch (Exception e) {
+                        throw new JsonMappingException("Failed to serialize property " + property.name, e);
+                    }
+                    buffer.writeEndObject();
+                    target.putAll(objectMapper.readValue(buffer.asParser(), Map.class));
+                }
+                continue;
+            }
+
+            Object value;
+            try {
+                value = property.writer.get(bean);
+            } catch (IOException | RuntimeException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new JsonMappingException("Failed to read property " + property.name, e);
+            }
+            if (value == null && property.writer.willSuppressNulls()) {
+                continue;
+            }
+            target.put(property.name, bindValue(provider, value, window));
+        }
+    }
+
+    private void bindMap(DefaultSerializerProvider provider,
+                         Map<?, ?> map,
+                         Map<Object, Object> target,
+                         PageWindow window) throws IOException {
+        boolean writeNulls = objectMapper.getSerializationConfig()
+                .isEnabled(SerializationFeature.WRITE_NULL_MAP_VALUES);
+        for (Map.Entry<?, ?> entry : map.entrySet()) {
+            if (entry.getValue() == null && !writeNulls) {
+                continue;
+            }
+            target.put(entry.getKey(), bindValue(provider, entry.getValue(), window));
+        }
+    }
+
+    private static boolean stringKeys(Map<?, ?> map) {
+        for (Object key : map.keySet()) {
+            if (!(key instanceof String)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> T roundTrip(Object value, Class<T> type) throws IOException {
+        try (TokenBuffer buffer = new TokenBuffer(objectMapper, false)) {
+            objectMapper.writeValue(buffer, value);
+            return objectMapper.readValue(buffer.asParser(), type);
+        }
+    }
+
+    private TypeModel getModel(DefaultSerializerProvider provider, Class<?> type) throws IOException {
+        TypeModel model = models.get(type);
+        if (model == null) {
+            model = createModel(provider, type);
+            models.put(type, model);
+        }
+        return model;
+    }
+
+    private TypeModel createModel(DefaultSerializerProvider provider, Class<?> type) throws JsonMappingException {
+        JsonSerializer<Object> serializer = provider.findTypedValueSerializer(type, true, null);
+        Class<?> serializerType = serializer.getClass();
+        if (serializerType == MapSerializer.class &&
+            !objectMapper.getSerializationConfig().isEnabled(SerializationFeature.ORDER_MAP_ENTRIES_BY_KEYS)) {
+            return new TypeModel(Kind.MAP, Collections.emptyList());
+        }
+        if (serializerType == IndexedListSerializer.class ||
+            serializerType == CollectionSerializer.class ||
+            serializerType == ObjectArraySerializer.class) {
+            return new TypeModel(Kind.LIST, Collections.emptyList());
+        }
+        if (serializerType != BeanSerializer.class || ((BeanSerializer) serializer).usesObjectId()) {
+            return TypeModel.LEAF;
+        }
+
+        SerializationConfig config = objectMapper.getSerializationConfig();
+        AnnotationIntrospector introspector = config.getAnnotationIntrospector();
+        BeanDescription description = config.introspect(objectMapper.getTypeFactory().constructType(type));
+        if (description.findAnyGetter() != null ||
+            introspector.findFilterId(description.getClassInfo()) != null) {
+            return TypeModel.LEAF;
+        }
+        JsonInclude.Include defaultInclusion = description.findSerializationInclusion(
+                config.getSerializationInclusion());
+
+        List<PropertyModel> properties = new ArrayList<>();
+        Iterator<PropertyWriter> iterator = ((BeanSerializer) serializer).properties();
+        while (iterator.hasNext()) {
+            PropertyWriter writer = iterator.next();
+            if (writer.getClass() != BeanPropertyWriter.class) {
+                return TypeModel.LEAF;
+            }
+            BeanPropertyWriter beanWriter = (BeanPropertyWriter) writer;
+            boolean plain = isPlain(introspector, beanWriter, defaultInclusion);
+            properties.add(new PropertyModel(beanWriter.getName(), beanWriter, plain));
+        }
+        return new TypeModel(Kind.BEAN, properties);
+    }
+
+    /**
+     * Whether the given property is written with the default rules, so its value can be bound directly.
+     */
+    private static boolean isPlain(AnnotationIntrospector introspector,
+                                   BeanPropertyWriter writer,
+                                   JsonInclude.Include defaultInclusion) {
+        AnnotatedMember member = writer.getMember();
+        if (writer.getTypeSerializer() != null || writer.hasNullSerializer() || member == null) {
+            return false;
+        }
+        if (introspector == null) {
+            return isPlainInclusion(defaultInclusion);
+        }
+        return introspector.findSerializer(member) == null &&
+               introspector.findContentSerializer(member) == null &&
+               introspector.findKeySerializer(member) == null &&
+               introspector.findSerializationConverter(member) == null &&
+               introspector.findSerializationContentConverter(member) == null &&
+               introspector.findFormat(member) == null &&
+               isPlainInclusion(introspector.findSerializationInclusion(member, defaultInclusion));
+    }
+
+    private static boolean isPlainInclusion(JsonInclude.Include inclusion) {
+        return inclusion == null ||
+               inclusion == JsonInclude.Include.ALWAYS ||
+               inclusion == JsonInclude.Include.NON_NULL;
+    }
+
+    /**
+     * Rows of page sources to bind for a paged render.
+     */
+    @RequiredArgsConstructor
+    static class PageWindow {
+        final int offset;
+        final int limit;
+        /**
+         * The largest size of the page sources that were bound.
+         */
+        int totalRows;
+    }
+
+    private static class BoundArguments extends HashMap<Object, Object> {
+        boolean lazy;
+    }
+
+    /**
+     * Iterable view of a lazily bound iterator. Elements are bound when they are first reached and kept for later
+     * iterations.
+     */
+    private class LazyIterable implements Iterable<Object> {
+        private final DefaultSerializerProvider provider;
+        private final Iterator<?> source;
+        private final List<Object> elements = new ArrayList<>();
+        /**
+         * Number of elements that may still be read from the source.
+         */
+        private int remaining;
+
+        LazyIterable(DefaultSerializerProvider provider, Iterator<?> source, int limit) {
+            provider.setAttribute(LazyIterable.class, Boolean.TRUE);
+            this.provider = provider;
+            this.source = source;
+            this.remaining = limit;
+        }
+
+        /**
+         * Whether the element at the given index exists, reading it from the source if necessary.
+         */
+        private synchronized boolean fill(int index) {
+            if (index < elements.size()) {
+                return true;
+            }
+            if (remaining <= 0 || !source.hasNext()) {
+                return false;
+            }
+            remaining--;
+            try {
+                elements.add(bindValue(provider, source.next(), null));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return true;
+        }
+
+        private synchronized Object get(int index) {
+            return elements.get(index);
+        }
+
+        @Override
+        public Iterator<Object> iterator() {
+            return new Iterator<Object>() {
+                private int index = 0;
+
+                @Override
+                public boolean hasNext() {
+                    return fill(index);
+                }
+
+                @Override
+                public Object next() {
+                    if (!fill(index)) {
+                        throw new NoSuchElementException();
+                    }
+                    return get(index++);
+                }
+            };
+        }
+    }
+
+    private enum Kind {
+        BEAN,
+        MAP,
+        LIST,
+        /**
+         * Converted through the object mapper.
+         */
+        LEAF,
+    }
+
+    @RequiredArgsConstructor
+    private static class TypeModel {
+        static final TypeModel LEAF = new TypeModel(Kind.LEAF, Collections.emptyList());
+
+        final Kind kind;
+        final List<PropertyModel> properties;
+    }
+
+    @RequiredArgsConstructor
+    private static class PropertyModel {
+        final String name;
+        final BeanPropertyWriter writer;
+        /**
+         * If false, this property is written by jackson and then merged into the bound map.
+         */
+        final boolean plain;
+    }
+}
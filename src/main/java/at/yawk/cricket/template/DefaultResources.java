@@ -0,0 +1,39 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package at.yawk.cricket.template;
+
+import java.io.IOException;
+import java.util.Collection;
+
+/**
+ * The bundled default resource files, before config directory overrides. Files are identified by their path relative
+ * to the resource directory, with {@code /} as separator.
+ *
+ * @author yawkat
+ */
+interface DefaultResources {
+    /**
+     * All files, excluding class files.
+     */
+    Collection<String> getFiles() throws IOException;
+
+    /**
+     * The files directly in the given directory, which is either empty or ends with {@code /}.
+     */
+    Collection<String> getFiles(String directory) throws IOException;
+
+    boolean isFile(String file);
+
+    byte[] read(String file) throws IOException;
+
+    long getSize(String file) throws IOException;
+
+    /**
+     * The hex SHA-256 hash of the given file, or null if it is not known without reading the file.
+     */
+    String getHash(String file);
+}
@@ -0,0 +1,100 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package at.yawk.cricket.template;
+
+import com.google.common.base.Joiner;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import lombok.RequiredArgsConstructor;
+
+/**
+ * Default resources read from a directory, which may be inside a zip file system.
+ *
+ * @author yawkat
+ */
+@RequiredArgsConstructor
+class DirectoryResources implements DefaultResources {
+    private final Path source;
+
+    @Override
+    public Collection<String> getFiles() throws IOException {
+        return list(Files.walk(source));
+    }
+
+    @Override
+    public Collection<String> getFiles(String directory) throws IOException {
+        Path path = directory.isEmpty() ? source : source.resolve(directory);
+        if (!Files.isDirectory(path)) {
+            return Collections.emptyList();
+        }
+        return list(Files.list(path));
+    }
+
+    private List<String> list(Stream<Path> paths) {
+        try (Stream<Path> stream = paths) {
+            return stream.filter(Files::isRegularFile)
+                    .filter(p -> !p.getFileName().toString().endsWith(".class"))
+                    .map(p -> Joiner.on('/').join(relativize(source, p)))
+                    .collect(Collectors.toList());
+        }
+    }
+
+    @Override
+    public boolean isFile(String file) {
+        return Files.isRegularFile(source.resolve(file));
+    }
+
+    @Override
+    public byte[] read(String file) throws IOException {
+        return Files.readAllBytes(source.resolve(file));
+    }
+
+    @Override
+    public long getSize(String file) throws IOException {
+        return Files.size(source.resolve(file));
+    }
+
+    @Override
+    public String getHash(String file) {
+        return null;
+    }
+
+    /**
+     * Get the names of the path from the parent to the child, as strings so that they can be used in another file
+     * system.
+     */
+    private static List<String> relativize(Path parent, Path child) {
+        String parentString = parent.toString();
+        String childString = child.toString();
+        if (parentString.endsWith("/") && !parentString.equals("/")) {
+            parentString = parentString.substring(0, parentString.length() - 1);
+        }
+        if (childString.endsWith("/")) {
+            childString = childString.substring(0, childString.length() - 1);
+        }
+
+        parent = parent.getFileSystem().getPath(parentString);
+        child = child.getFileSystem().getPath(childString);
+
+        if (parent.isAbsolute()) { child = child.toAbsolutePath(); }
+        if (child.isAbsolute()) { parent = parent.toAbsolutePath(); }
+
+        Path relative = parent.relativize(child);
+        List<String> names = new ArrayList<>(relative.getNameCount());
+        for (int i = 0; i < relative.getNameCount(); i++) {
+            names.add(relative.getName(i).toString());
+        }
+        return names;
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package at.yawk.cricket.template;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Concurrent histogram of non-negative long values with a fixed relative precision, in the style of HdrHistogram.
+ *
+ * Values below {@code 2^precisionBits} are counted exactly. Larger values are grouped into buckets that each cover
+ * {@code 1 / 2^(precisionBits - 1)} of their lower bound, so the relative error of any reported value is bounded by
+ * that fraction. The bucket array has a fixed size that covers the whole long range, so recording never allocates.
+ *
+ * Recording is lock-free. Reads are not atomic with respect to concurrent recording and may observe a value that is
+ * counted in some totals but not in others yet.
+ *
+ * @author yawkat
+ */
+public class Histogram {
+    private final int precisionBits;
+    private final int exactLimit;
+    private final int halfBuckets;
+
+    private final AtomicLongArray counts;
+    private final LongAdder totalCount = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    /**
+     * Create a histogram with 5 bits of precision, i.e. a relative error of at most 6.25%.
+     */
+    public Histogram() {
+        this(5);
+    }
+
+    /**
+     * @param precisionBits Number of significant bits to keep for each value, between 2 and 16.
+     */
+    public Histogram(int precisionBits) {
+        if (precisionBits < 2 || precisionBits > 16) {
+            throw new IllegalArgumentException("precisionBits must be between 2 and 16");
+        }
+        this.precisionBits = precisionBits;
+        this.exactLimit = 1 << precisionBits;
+        this.halfBuckets = exactLimit >>> 1;
+        this.counts = new AtomicLongArray(exactLimit + (64 - precisionBits) * halfBuckets);
+    }
+
+    /**
+     * Record a value. Negative values are recorded as 0.
+     */
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        counts.incrementAndGet(index(value));
+        totalCount.increment();
+        sum.add(value);
+        max.accumulate(value);
+    }
+
+    private int index(long value) {
+        if (value < exactLimit) {
+            return (int) value;
+        }
+        int shift = 64 - Long.numberOfLeadingZeros(value) - precisionBits;
+        int mantissa = (int) (value >>> shift);
+        return exactLimit + (shift - 1) * halfBuckets + (mantissa - halfBuckets);
+    }
+
+    private long lowerBound(int index) {
+        if (index < exactLimit) {
+            return index;
+        }
+        int offset = index - exactLimit;
+        int shift = offset / halfBuckets + 1;
+        long mantissa = offset % halfBuckets + halfBuckets;
+        return mantissa << shift;
+    }
+
+    private long upperBound(int index) {
+        if (index < exactLimit) {
+            return index;
+        }
+        int shift = (index - exactLimit) / halfBuckets + 1;
+        long upper = lowerBound(index) + (1L << shift) - 1;
+        // the last bucket would overflow
+        return upper < 0 ? Long.MAX_VALUE : upper;
+    }
+
+    public long getTotalCount() {
+        return totalCount.sum();
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    public double getMean() {
+        long count = totalCount.sum();
+        return count == 0 ? 0 : (double) sum.sum() / count;
+    }
+
+    /**
+     * Get the value below or at which the given percentage of recorded values lie. The result is the highest value that
+     * falls into the same bucket as the exact percentile, but never more than the maximum recorded value.
+     *
+     * @param percentile Percentile between 0 and 100.
+     */
+    public long getValueAtPercentile(double percentile) {
+        long count = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            count += counts.get(i);
+        }
+        if (count == 0) {
+            return 0;
+        }
+        long target = Math.max(1, (long) Math.ceil(Math.min(100, percentile) / 100 * count));
+        long seen = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            seen += counts.get(i);
+            if (seen >= target) {
+                return Math.min(upperBound(i), getMax());
+            }
+        }
+        return getMax();
+    }
+
+    /**
+     * Pass every bucket that holds at least one value to the given visitor, in ascending order.
+     */
+    public void forEachBucket(BucketVisitor visitor) {
+        for (int i = 0; i < counts.length(); i++) {
+            long count = counts.get(i);
+            if (count != 0) {
+                visitor.visit(lowerBound(i), upperBound(i), count);
+            }
+        }
+    }
+
+    /**
+     * Remove all recorded values.
+     */
+    public void reset() {
+        for (int i = 0; i < counts.length(); i++) {
+            counts.set(i, 0);
+        }
+        totalCount.reset();
+        sum.reset();
+        max.reset();
+    }
+
+    @FunctionalInterface
+    public interface BucketVisitor {
+        /**
+         * @param lowerBound Smallest value of the bucket, inclusive.
+         * @param upperBound Largest value of the bucket, inclusive.
+         * @param count      Number of values recorded in the bucket.
+         */
+        void visit(long lowerBound, long upperBound, long count);
+    }
+}
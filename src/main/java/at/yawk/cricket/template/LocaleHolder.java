@@ -0,0 +1,74 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package at.yawk.cricket.template;
+
+import java.util.Locale;
+import java.util.function.Supplier;
+
+/**
+ * Holder class to store the current template locale for a thread, defaulting to {@link Locale#ROOT}. Templates are
+ * resolved to their variant for this locale, see {@link TemplateManager}. The root locale selects the unlocalized
+ * templates.
+ *
+ * @author yawkat
+ */
+public class LocaleHolder {
+    private static final ThreadLocal<Locale> LOCALE_THREAD_LOCAL = ThreadLocal.withInitial(() -> Locale.ROOT);
+
+    public static Locale getLocale() {
+        return LOCALE_THREAD_LOCAL.get();
+    }
+
+    /**
+     * Set the current template locale for this thread.
+     *
+     * @param locale The locale, or null for {@link Locale#ROOT}.
+     * @return The old locale.
+     */
+    public static Locale setLocale(Locale locale) {
+        Locale previous = LOCALE_THREAD_LOCAL.get();
+        LOCALE_THREAD_LOCAL.set(locale == null ? Locale.ROOT : locale);
+        return previous;
+    }
+
+    /**
+     * Call a {@link TimeZoneHolder.TypedCallable} with a given locale. The locale will be reset after the callable has
+     * completed.
+     */
+    public static <V, E extends Exception> V withLocale(Locale locale, TimeZoneHolder.TypedCallable<V, E> task)
+            throws E {
+        Locale previous = setLocale(locale);
+        try {
+            return task.call();
+        } finally {
+            setLocale(previous);
+        }
+    }
+
+    /**
+     * Wrap the given task so that it runs with the locale of the calling thread, even if it is executed on another
+     * thread later.
+     */
+    public static <V> Supplier<V> propagate(Supplier<V> task) {
+        Locale locale = getLocale();
+        return () -> {
+            Locale previous = setLocale(locale);
+            try {
+                return task.get();
+            } finally {
+                setLocale(previous);
+            }
+        };
+    }
+
+    /**
+     * Whether the given locale selects localized templates, i.e. is not null or the root locale.
+     */
+    static boolean isLocalized(Locale locale) {
+        return locale != null && !locale.getLanguage().isEmpty();
+    }
+}
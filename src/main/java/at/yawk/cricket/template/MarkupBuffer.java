@@ -0,0 +1,93 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package at.yawk.cricket.template;
+
+import java.io.Writer;
+import java.util.Arrays;
+
+/**
+ * Growable character buffer that template output is rendered into before it is passed to the {@link MarkupLexer}.
+ * Buffers are reused per thread through {@link #acquire()} and {@link #release()}.
+ *
+ * @author yawkat
+ */
+class MarkupBuffer extends Writer {
+    /**
+     * Larger buffers are not kept around after use.
+     */
+    private static final int MAX_RETAINED_CAPACITY = 64 * 1024;
+
+    private static final ThreadLocal<MarkupBuffer> THREAD_BUFFER = new ThreadLocal<>();
+
+    private char[] chars = new char[1024];
+    private int length = 0;
+
+    private MarkupBuffer() {}
+
+    /**
+     * Get an empty buffer for this thread. If the buffer of this thread is already in use (nested render), a new buffer
+     * is returned.
+     */
+    static MarkupBuffer acquire() {
+        MarkupBuffer buffer = THREAD_BUFFER.get();
+        if (buffer == null) {
+            return new MarkupBuffer();
+        }
+        THREAD_BUFFER.set(null);
+        return buffer;
+    }
+
+    /**
+     * Return this buffer to the thread cache. The buffer must not be used afterwards.
+     */
+    void release() {
+        length = 0;
+        if (chars.length <= MAX_RETAINED_CAPACITY) {
+            THREAD_BUFFER.set(this);
+        }
+    }
+
+    char[] getChars() {
+        return chars;
+    }
+
+    int getLength() {
+        return length;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > chars.length) {
+            chars = Arrays.copyOf(chars, Math.max(capacity, chars.length * 2));
+        }
+    }
+
+    @Override
+    public void write(int c) {
+        ensureCapacity(length + 1);
+        chars[length++] = (char) c;
+    }
+
+    @Override
+    public void write(char[] cbuf, int off, int len) {
+        ensureCapacity(length + len);
+        System.arraycopy(cbuf, off, chars, length, len);
+        length += len;
+    }
+
+    @Override
+    public void write(String str, int off, int len) {
+        ensureCapacity(length + len);
+        str.getChars(off, off + len, chars, length);
+        length += len;
+    }
+
+    @Override
+    public void flush() {}
+
+    @Override
+    public void close() {}
+}
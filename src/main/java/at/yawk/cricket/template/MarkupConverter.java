@@ -13,4 +13,12 @@ package at.yawk.cricket.template;
  */
 public interface MarkupConverter<T> {
     T convert(String xml);
+
+    /**
+     * Create a handler that builds the converted value from markup parse events, or null if this converter only
+     * supports {@link #convert(String)}.
+     */
+    default MarkupHandler<T> createHandler() {
+        return null;
+    }
 }
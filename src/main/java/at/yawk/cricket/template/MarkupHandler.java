@@ -0,0 +1,59 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package at.yawk.cricket.template;
+
+import java.util.function.Function;
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * SAX handler that builds the output of a {@link MarkupConverter} from parse events instead of an XML string. A handler
+ * is used for a single document only.
+ *
+ * @author yawkat
+ */
+public abstract class MarkupHandler<T> extends DefaultHandler {
+    /**
+     * Finish the document and return the converted value.
+     */
+    public abstract T getResult();
+
+    /**
+     * Return a handler that passes all events to this handler and applies the given function to its result.
+     */
+    public <R> MarkupHandler<R> map(Function<? super T, ? extends R> function) {
+        MarkupHandler<T> delegate = this;
+        return new MarkupHandler<R>() {
+            @Override
+            public R getResult() {
+                return function.apply(delegate.getResult());
+            }
+
+            @Override
+            public void startElement(String uri, String localName, String qName, Attributes attributes)
+                    throws SAXException {
+                delegate.startElement(uri, localName, qName, attributes);
+            }
+
+            @Override
+            public void endElement(String uri, String localName, String qName) throws SAXException {
+                delegate.endElement(uri, localName, qName);
+            }
+
+            @Override
+            public void characters(char[] ch, int start, int length) throws SAXException {
+                delegate.characters(ch, start, length);
+            }
+
+            @Override
+            public void ignorableWhitespace(char[] ch, int start, int length) throws SAXException {
+                delegate.ignorableWhitespace(ch, start, length);
+            }
+        };
+    }
+}
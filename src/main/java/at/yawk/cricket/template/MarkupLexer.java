@@ -0,0 +1,491 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package at.yawk.cricket.template;
+
+import java.io.CharArrayReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.function.Supplier;
+import org.ccil.cowan.tagsoup.Parser;
+import org.xml.sax.Attributes;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.AttributesImpl;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * Streaming tokenizer for the markup dialect used by our templates ({@code span}, {@code hover}, {@code click},
+ * {@code lf} and {@code translateUrls} with quoted attributes, and the XML entities handlebars produces when escaping
+ * values).
+ *
+ * For such input the lexer produces the same SAX events TagSoup does, including TagSoup's quirks: documents are wrapped
+ * in {@code html} and {@code body} elements unless the first element is one TagSoup does not know, in which case that
+ * element becomes the root and stays open until the end of the document. Anything else (other elements, comments,
+ * unknown entities, unquoted or duplicate attributes, ...) is considered malformed, in which case
+ * {@link #parse(String, Supplier)} falls back to TagSoup.
+ *
+ * @author yawkat
+ */
+class MarkupLexer {
+    private static final String NAMESPACE = "http://www.w3.org/1999/xhtml";
+
+    private static final String[] ELEMENTS = { "span", "hover", "click", "lf", "translateUrls" };
+    /**
+     * Attribute names that are returned as constants instead of allocating a new string.
+     */
+    private static final String[] ATTRIBUTES = {
+            "color", "action", "value", "shift", "bold", "italic", "underlined", "strikethrough", "obfuscated"
+    };
+    private static final char[] LINE_FEED = { '\n' };
+
+    private static final MalformedMarkupException MALFORMED = new MalformedMarkupException();
+    private static final ContentHandler NO_OP_HANDLER = new DefaultHandler();
+    private static final Attributes NO_ATTRIBUTES = new AttributesImpl();
+
+    private char[] in;
+    private int length;
+    private ContentHandler handler;
+    private final AttributesImpl attributes = new AttributesImpl();
+    private final StringBuilder valueBuilder = new StringBuilder();
+    private final char[] entity = new char[1];
+
+    private int pos = 0;
+    private String[] stack = new String[8];
+    private int depth = 0;
+    private boolean started = false;
+    /**
+     * If true, the first element is the document root and must not be closed before the end of the document.
+     * Otherwise, the document is wrapped in html and body elements.
+     */
+    private boolean rootMode = false;
+
+    /**
+     * Create a lexer that can be reused for several documents with {@link #reparse(char[], int, ContentHandler,
+     * Supplier)}. A lexer must only be used by one thread at a time.
+     */
+    MarkupLexer() {}
+
+    private MarkupLexer(char[] in, int length, ContentHandler handler) {
+        reset(in, length, handler);
+    }
+
+    private void reset(char[] in, int length, ContentHandler handler) {
+        this.in = in;
+        this.length = length;
+        this.handler = handler;
+        pos = 0;
+        depth = 0;
+        started = false;
+        rootMode = false;
+    }
+
+    /**
+     * Like {@link #parse(char[], int, ContentHandler, Supplier)}, but reuses the state of this lexer instead of
+     * allocating a new one.
+     */
+    <H extends ContentHandler> H reparse(char[] buffer, int length, H handler, Supplier<H> handlerFactory)
+            throws IOException, SAXException {
+        try {
+            reset(buffer, length, handler);
+            run();
+            return handler;
+        } catch (MalformedMarkupException e) {
+            return parseTagSoup(new CharArrayReader(buffer, 0, length), handlerFactory.get());
+        } finally {
+            // don't keep the document alive
+            reset(null, 0, null);
+        }
+    }
+
+    /**
+     * Parse the given markup to a handler created by the given factory. If the markup is not understood by the lexer,
+     * the handler is discarded and the markup is parsed by TagSoup to a new handler instead.
+     *
+     * @return The handler that received the events of the whole document.
+     */
+    static <H extends ContentHandler> H parse(String xml, Supplier<H> handlerFactory) throws IOException, SAXException {
+        char[] chars = xml.toCharArray();
+        return parse(chars, chars.length, handlerFactory);
+    }
+
+    /**
+     * Parse the first {@code length} characters of the given buffer, see {@link #parse(String, Supplier)}. The buffer
+     * must not be modified until parsing is complete.
+     */
+    static <H extends ContentHandler> H parse(char[] buffer, int length, Supplier<H> handlerFactory)
+            throws IOException, SAXException {
+        return parse(buffer, length, handlerFactory.get(), handlerFactory);
+    }
+
+    /**
+     * Parse the first {@code length} characters of the given buffer to the given handler. If the markup is not
+     * understood by the lexer, it is parsed by TagSoup to a new handler from the given factory instead.
+     *
+     * @return The handler that received the events of the whole document.
+     */
+    static <H extends ContentHandler> H parse(char[] buffer, int length, H handler, Supplier<H> handlerFactory)
+            throws IOException, SAXException {
+        try {
+            new MarkupLexer(buffer, length, handler).run();
+            return handler;
+        } catch (MalformedMarkupException e) {
+            return parseTagSoup(new CharArrayReader(buffer, 0, length), handlerFactory.get());
+        }
+    }
+
+    /**
+     * Parse the first {@code length} characters of the given buffer to the given handler. Unlike
+     * {@link #parse(char[], int, Supplier)}, the handler never sees the events of an aborted parse: the markup is
+     * checked before any events are emitted, at the cost of lexing it twice.
+     */
+    static <H extends ContentHandler> H parseChecked(char[] buffer, int length, H handler)
+            throws IOException, SAXException {
+        try {
+            new MarkupLexer(buffer, length, NO_OP_HANDLER).run();
+        } catch (MalformedMarkupException e) {
+            return parseTagSoup(new CharArrayReader(buffer, 0, length), handler);
+        }
+        try {
+            new MarkupLexer(buffer, length, handler).run();
+        } catch (MalformedMarkupException e) {
+            throw new AssertionError(e);
+        }
+        return handler;
+    }
+
+    /**
+     * Parse the given markup using TagSoup.
+     */
+    static <H extends ContentHandler> H parseTagSoup(Reader reader, H handler) throws IOException, SAXException {
+        Parser parser = new Parser();
+        parser.setContentHandler(handler);
+        parser.parse(new InputSource(reader));
+        return handler;
+    }
+
+    private void run() throws SAXException, MalformedMarkupException {
+        handler.startDocument();
+        while (pos < length && isWhitespace(in[pos])) {
+            pos++;
+        }
+        if (pos < length && in[pos] != '<' && in[pos] != '&') {
+            // leading whitespace is only kept if the document starts with literal text
+            pos = 0;
+        }
+        while (pos < length) {
+            if (in[pos] == '<') {
+                tag();
+            } else {
+                text();
+            }
+        }
+        if (!started) {
+            start(null);
+        }
+        while (depth > 0) {
+            pop();
+        }
+        if (!rootMode) {
+            handler.endElement(NAMESPACE, "body", "body");
+            handler.endElement(NAMESPACE, "html", "html");
+        }
+        handler.endDocument();
+    }
+
+    private void start(String firstElement) throws SAXException {
+        started = true;
+        rootMode = firstElement != null && !firstElement.equals("span");
+        if (!rootMode) {
+            handler.startElement(NAMESPACE, "html", "html", NO_ATTRIBUTES);
+            handler.startElement(NAMESPACE, "body", "body", NO_ATTRIBUTES);
+        }
+    }
+
+    private void text() throws SAXException, MalformedMarkupException {
+        if (!started) {
+            start(null);
+        }
+        int start = pos;
+        while (pos < length) {
+            char c = in[pos];
+            if (c == '<') {
+                break;
+            } else if (c == '&') {
+                characters(start, pos);
+                entity[0] = entity();
+                handler.characters(entity, 0, 1);
+                start = pos;
+            } else if (c == '\r') {
+                // tagsoup normalizes both \r\n and \r to \n
+                characters(start, pos);
+                pos++;
+                if (pos >= length || in[pos] != '\n') {
+                    handler.characters(LINE_FEED, 0, 1);
+                }
+                start = pos;
+            } else {
+                pos++;
+            }
+        }
+        characters(start, pos);
+    }
+
+    private void characters(int start, int end) throws SAXException {
+        if (end > start) {
+            handler.characters(in, start, end - start);
+        }
+    }
+
+    private void tag() throws SAXException, MalformedMarkupException {
+        pos++;
+        if (pos < length && in[pos] == '/') {
+            pos++;
+            endTag();
+        } else {
+            startTag();
+        }
+    }
+
+    private void startTag() throws SAXException, MalformedMarkupException {
+        String name = elementName();
+        attributes.clear();
+        boolean selfClosing;
+        while (true) {
+            boolean whitespace = skipWhitespace();
+            char c = peek();
+            if (c == '>') {
+                pos++;
+                selfClosing = false;
+                break;
+            } else if (c == '/') {
+                pos++;
+                expect('>');
+                selfClosing = true;
+                break;
+            } else if (!whitespace) {
+                throw MALFORMED;
+            }
+            attribute();
+        }
+
+        if (!started) {
+            start(name);
+        }
+        push(name);
+        handler.startElement(NAMESPACE, name, name, attributes);
+        if (selfClosing && !(rootMode && depth == 1)) {
+            pop();
+        }
+    }
+
+    private void attribute() throws MalformedMarkupException {
+        int start = pos;
+        while (pos < length && isAttributeNameChar(in[pos])) {
+            pos++;
+        }
+        if (pos == start || !(in[start] >= 'a' && in[start] <= 'z')) {
+            throw MALFORMED;
+        }
+        String name = attributeName(start, pos - start);
+        if (attributes.getIndex(name) != -1) {
+            throw MALFORMED;
+        }
+        skipWhitespace();
+        expect('=');
+        skipWhitespace();
+        char quote = peek();
+        if (quote != '"' && quote != '\'') {
+            throw MALFORMED;
+        }
+        pos++;
+        valueBuilder.setLength(0);
+        while (true) {
+            char c = peek();
+            pos++;
+            if (c == quote) {
+                break;
+            } else if (c == '&') {
+                pos--;
+                valueBuilder.append(entity());
+            } else if (c == '\n' || c == '\t') {
+                valueBuilder.append(' ');
+            } else if (c == '\r') {
+                throw MALFORMED;
+            } else {
+                valueBuilder.append(c);
+            }
+        }
+        attributes.addAttribute("", name, name, "CDATA", valueBuilder.toString());
+    }
+
+    private void endTag() throws SAXException, MalformedMarkupException {
+        String name = elementName();
+        skipWhitespace();
+        expect('>');
+        if (!started) {
+            throw MALFORMED;
+        }
+        // the root element in root mode is never closed, and unmatched end tags are ignored
+        for (int i = depth - 1; i >= (rootMode ? 1 : 0); i--) {
+            // names are interned constants
+            if (stack[i] == name) {
+                while (depth > i) {
+                    pop();
+                }
+                break;
+            }
+        }
+    }
+
+    private String elementName() throws MalformedMarkupException {
+        int start = pos;
+        while (pos < length && isNameChar(in[pos])) {
+            pos++;
+        }
+        int nameLength = pos - start;
+        for (String element : ELEMENTS) {
+            if (element.length() == nameLength && regionMatches(element, start)) {
+                return element;
+            }
+        }
+        throw MALFORMED;
+    }
+
+    private String attributeName(int start, int nameLength) {
+        for (String attribute : ATTRIBUTES) {
+            if (attribute.length() == nameLength && regionMatches(attribute, start)) {
+                return attribute;
+            }
+        }
+        return new String(in, start, nameLength);
+    }
+
+    private boolean regionMatches(String s, int start) {
+        for (int i = 0; i < s.length(); i++) {
+            if (in[start + i] != s.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Read an entity starting at the current position ({@code &}).
+     */
+    private char entity() throws MalformedMarkupException {
+        int start = ++pos;
+        while (pos < length && in[pos] != ';') {
+            if (pos - start > 8) {
+                throw MALFORMED;
+            }
+            pos++;
+        }
+        if (pos >= length) {
+            throw MALFORMED;
+        }
+        int end = pos++;
+        if (end - start < 2) {
+            throw MALFORMED;
+        }
+        if (in[start] == '#') {
+            int radix = 10;
+            int digits = start + 1;
+            if (in[digits] == 'x' || in[digits] == 'X') {
+                radix = 16;
+                digits++;
+            }
+            if (digits == end) {
+                throw MALFORMED;
+            }
+            int value = 0;
+            for (int i = digits; i < end; i++) {
+                int digit = Character.digit(in[i], radix);
+                if (digit == -1) {
+                    throw MALFORMED;
+                }
+                value = value * radix + digit;
+            }
+            if (value <= 0 || value > 0xFFFF || Character.isSurrogate((char) value)) {
+                throw MALFORMED;
+            }
+            return (char) value;
+        }
+        switch (new String(in, start, end - start)) {
+        case "amp":
+            return '&';
+        case "lt":
+            return '<';
+        case "gt":
+            return '>';
+        case "quot":
+            return '"';
+        case "apos":
+            return '\'';
+        default:
+            throw MALFORMED;
+        }
+    }
+
+    private void push(String name) {
+        if (depth == stack.length) {
+            String[] newStack = new String[depth * 2];
+            System.arraycopy(stack, 0, newStack, 0, depth);
+            stack = newStack;
+        }
+        stack[depth++] = name;
+    }
+
+    private void pop() throws SAXException {
+        String name = stack[--depth];
+        handler.endElement(NAMESPACE, name, name);
+    }
+
+    private char peek() throws MalformedMarkupException {
+        if (pos >= length) {
+            throw MALFORMED;
+        }
+        return in[pos];
+    }
+
+    private void expect(char c) throws MalformedMarkupException {
+        if (peek() != c) {
+            throw MALFORMED;
+        }
+        pos++;
+    }
+
+    private boolean skipWhitespace() {
+        int start = pos;
+        while (pos < length && isWhitespace(in[pos])) {
+            pos++;
+        }
+        return pos != start;
+    }
+
+    private static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\n' || c == '\r' || c == '\t';
+    }
+
+    private static boolean isNameChar(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+    }
+
+    private static boolean isAttributeNameChar(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= '0' && c <= '9') || c == '_' || c == '-';
+    }
+
+    /**
+     * Thrown when the input uses syntax the lexer does not support. Shared instance without stack trace, since this is
+     * used for control flow only.
+     */
+    private static class MalformedMarkupException extends Exception {
+        MalformedMarkupException() {
+            super(null, null, false, false);
+        }
+    }
+}
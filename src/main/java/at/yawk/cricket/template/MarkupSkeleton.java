@@ -0,0 +1,423 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package at.yawk.cricket.template;
+
+import com.github.jknack.handlebars.Context;
+import com.github.jknack.handlebars.Handlebars;
+import com.github.jknack.handlebars.Helper;
+import com.github.jknack.handlebars.Template;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import lombok.RequiredArgsConstructor;
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.AttributesImpl;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * Template markup that was parsed once at load time. The skeleton stores the parse events of the template with a
+ * placeholder character for each handlebars expression ("hole"). Rendering evaluates only the holes and replays the
+ * stored events into a {@link MarkupHandler}, so neither the full XML string nor a new markup parse is needed.
+ *
+ * Only templates whose handlebars expressions are plain escaped variables or {@code time} helper calls in text or
+ * attribute value position can be compiled: their values can never introduce markup of their own. For everything else
+ * (sections, partials, unescaped output, other helpers) {@link #compile(Handlebars, String)} returns null.
+ *
+ * @author yawkat
+ */
+class MarkupSkeleton {
+    /**
+     * Placeholder characters are taken from the unicode private use area.
+     */
+    private static final char HOLE_BASE = '\uE000';
+    private static final char HOLE_LIMIT = '\uF8FF';
+
+    private static final Pattern EXPRESSION = Pattern.compile(
+            "\\s*([^\\s\"'=(){}#/^>&~!.@][^\\s\"'=(){}]*)((?:\\s+(?:\"[^\"]*\"|'[^']*'|[^\\s\"'=(){}]+))*)\\s*");
+
+    private final Template[] holes;
+    /**
+     * Top-level argument name each hole reads, or null if the hole may depend on more than one argument or on the time
+     * zone (helper calls, {@code this}).
+     */
+    private final String[] holeVariables;
+    private final List<Event> events;
+
+    private MarkupSkeleton(Template[] holes, String[] holeVariables, List<Event> events) {
+        this.holes = holes;
+        this.holeVariables = holeVariables;
+        this.events = events;
+    }
+
+    /**
+     * Compile the given template source to a skeleton, or return null if the template uses features that are not
+     * supported by skeletons.
+     */
+    static MarkupSkeleton compile(Handlebars handlebars, String source) throws IOException {
+        for (int i = 0; i < source.length(); i++) {
+            char c = source.charAt(i);
+            if (c >= HOLE_BASE && c <= HOLE_LIMIT) {
+                return null;
+            }
+        }
+
+        List<Template> holes = new ArrayList<>();
+        List<String> holeVariables = new ArrayList<>();
+        StringBuilder markup = new StringBuilder(source.length());
+        int position = 0;
+        while (true) {
+            int open = source.indexOf("{{", position);
+            if (open == -1) {
+                markup.append(source, position, source.length());
+                break;
+            }
+            if (open > 0 && source.charAt(open - 1) == '\\') {
+                // escaped mustache
+                return null;
+            }
+            markup.append(source, position, open);
+            if (source.startsWith("{{!--", open)) {
+                int close = source.indexOf("--}}", open);
+                if (close == -1) { return null; }
+                position = close + 4;
+                continue;
+            }
+            int close = source.indexOf("}}", open);
+            if (close == -1) { return null; }
+            position = close + 2;
+            String expression = source.substring(open + 2, close);
+            if (expression.startsWith("!")) {
+                continue;
+            }
+            if (!isSupportedExpression(handlebars, expression) ||
+                HOLE_BASE + holes.size() > HOLE_LIMIT) {
+                return null;
+            }
+            markup.append((char) (HOLE_BASE + holes.size()));
+            holes.add(handlebars.compileInline("{{{" + expression + "}}}"));
+            holeVariables.add(getVariable(handlebars, expression));
+        }
+        if (!holesInValuePosition(markup)) {
+            return null;
+        }
+
+        Recorder recorder;
+        try {
+            recorder = MarkupLexer.parse(markup.toString(), Recorder::new);
+        } catch (SAXException e) {
+            throw new IOException(e);
+        }
+        if (!recorder.valid) {
+            return null;
+        }
+        return new MarkupSkeleton(holes.toArray(new Template[holes.size()]),
+                                  holeVariables.toArray(new String[holeVariables.size()]),
+                                  recorder.events);
+    }
+
+    /**
+     * Whether every hole of the given markup is in text or in a quoted attribute value. A hole anywhere else (element
+     * or attribute name, unquoted attribute value, CDATA section, ...) could change the structure of the markup
+     * depending on its value.
+     */
+    private static boolean holesInValuePosition(CharSequence markup) {
+        int length = markup.length();
+        int i = 0;
+        while (i < length) {
+            char c = markup.charAt(i);
+            if (c != '<' || i + 1 >= length || markup.charAt(i + 1) == ' ') {
+                // text
+                i++;
+                continue;
+            }
+            String end;
+            if (startsWith(markup, i, "<!--")) {
+                // holes in comments are dropped either way
+                i = indexOf(markup, "-->", i + 4);
+                if (i == -1) { return true; }
+                i += 3;
+                continue;
+            } else if (startsWith(markup, i, "<![CDATA[")) {
+                end = "]]>";
+            } else if (markup.charAt(i + 1) == '!' || markup.charAt(i + 1) == '?') {
+                end = ">";
+            } else {
+                // element tag
+                char quote = 0;
+                for (i++; i < length; i++) {
+                    c = markup.charAt(i);
+                    if (quote != 0) {
+                        if (c == quote) { quote = 0; }
+                    } else if (c == '"' || c == '\'') {
+                        quote = c;
+                    } else if (c == '>') {
+                        break;
+                    } else if (c >= HOLE_BASE && c <= HOLE_LIMIT) {
+                        return false;
+                    }
+                }
+                i++;
+                continue;
+            }
+            int close = indexOf(markup, end, i);
+            for (int j = i; j < (close == -1 ? length : close); j++) {
+                c = markup.charAt(j);
+                if (c >= HOLE_BASE && c <= HOLE_LIMIT) {
+                    return false;
+                }
+            }
+            if (close == -1) { return true; }
+            i = close + end.length();
+        }
+        return true;
+    }
+
+    private static boolean startsWith(CharSequence s, int offset, String prefix) {
+        if (offset + prefix.length() > s.length()) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length(); i++) {
+            if (s.charAt(offset + i) != prefix.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int indexOf(CharSequence s, String needle, int from) {
+        for (int i = from; i + needle.length() <= s.length(); i++) {
+            if (startsWith(s, i, needle)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean isSupportedExpression(Handlebars handlebars, String expression) {
+        Matcher matcher = EXPRESSION.matcher(expression);
+        if (!matcher.matches()) {
+            return false;
+        }
+        String name = matcher.group(1);
+        if (name.equals("else")) {
+            return false;
+        }
+        Helper<?> helper = handlebars.helper(name);
+        if (helper == null) {
+            // plain variable
+            return matcher.group(2).isEmpty();
+        }
+        // helpers may return safe strings that contain markup, only allow our own
+        return helper == TimeFormatHelper.getInstance();
+    }
+
+    /**
+     * Get the top-level argument name read by a supported expression, or null if it is a helper call or reads the whole
+     * context.
+     */
+    private static String getVariable(Handlebars handlebars, String expression) {
+        Matcher matcher = EXPRESSION.matcher(expression);
+        matcher.matches();
+        String name = matcher.group(1);
+        if (handlebars.helper(name) != null) {
+            return null;
+        }
+        int end = 0;
+        while (end < name.length() && name.charAt(end) != '.' && name.charAt(end) != '/' && name.charAt(end) != '[') {
+            end++;
+        }
+        String variable = name.substring(0, end);
+        return variable.isEmpty() || variable.equals("this") ? null : variable;
+    }
+
+    /**
+     * Whether any hole of this skeleton may depend on the {@link TimeZoneHolder} zone.
+     */
+    boolean isZoneDependent() {
+        for (String variable : holeVariables) {
+            if (variable == null) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Find the holes whose value may change when the given top-level arguments are overridden or the time zone changes.
+     */
+    boolean[] getDependentHoles(Set<?> arguments) {
+        boolean[] dependent = new boolean[holes.length];
+        for (int i = 0; i < holes.length; i++) {
+            dependent[i] = holeVariables[i] == null || arguments.contains(holeVariables[i]);
+        }
+        return dependent;
+    }
+
+    /**
+     * Render this skeleton with the given context.
+     */
+    <T> T render(Context context, MarkupHandler<T> handler) throws IOException {
+        return replay(evaluate(context), handler);
+    }
+
+    /**
+     * Evaluate the holes of this skeleton with the given context.
+     */
+    String[] evaluate(Context context) throws IOException {
+        String[] values = new String[holes.length];
+        for (int i = 0; i < holes.length; i++) {
+            values[i] = holes[i].apply(context);
+        }
+        return values;
+    }
+
+    /**
+     * Evaluate the selected holes of this skeleton with the given context and store their values in the given array.
+     */
+    void evaluate(Context context, String[] values, boolean[] selected) throws IOException {
+        for (int i = 0; i < holes.length; i++) {
+            if (selected[i]) {
+                values[i] = holes[i].apply(context);
+            }
+        }
+    }
+
+    int getHoleCount() {
+        return holes.length;
+    }
+
+    /**
+     * Replay the events of this skeleton into the given handler, using hole values from {@link #evaluate(Context)}.
+     */
+    <T> T replay(String[] values, MarkupHandler<T> handler) throws IOException {
+        try {
+            for (Event event : events) {
+                event.replay(handler, values);
+            }
+        } catch (SAXException e) {
+            throw new IOException(e);
+        }
+        return handler.getResult();
+    }
+
+    private static boolean containsHole(String s) {
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c >= HOLE_BASE && c <= HOLE_LIMIT) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String fillHoles(String s, String[] values) {
+        StringBuilder builder = null;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c >= HOLE_BASE && c <= HOLE_LIMIT) {
+                if (builder == null) {
+                    builder = new StringBuilder(s.length() + 16).append(s, 0, i);
+                }
+                builder.append(values[c - HOLE_BASE]);
+            } else if (builder != null) {
+                builder.append(c);
+            }
+        }
+        return builder == null ? s : builder.toString();
+    }
+
+    private interface Event {
+        void replay(MarkupHandler<?> handler, String[] values) throws SAXException;
+    }
+
+    @RequiredArgsConstructor
+    private static class StartElement implements Event {
+        private final String uri;
+        private final String localName;
+        private final String qName;
+        private final Attributes attributes;
+        private final boolean hasHoles;
+
+        @Override
+        public void replay(MarkupHandler<?> handler, String[] values) throws SAXException {
+            Attributes attributes = this.attributes;
+            if (hasHoles) {
+                AttributesImpl filled = new AttributesImpl(attributes);
+                for (int i = 0; i < filled.getLength(); i++) {
+                    filled.setValue(i, fillHoles(filled.getValue(i), values));
+                }
+                attributes = filled;
+            }
+            handler.startElement(uri, localName, qName, attributes);
+        }
+    }
+
+    @RequiredArgsConstructor
+    private static class EndElement implements Event {
+        private final String uri;
+        private final String localName;
+        private final String qName;
+
+        @Override
+        public void replay(MarkupHandler<?> handler, String[] values) throws SAXException {
+            handler.endElement(uri, localName, qName);
+        }
+    }
+
+    @RequiredArgsConstructor
+    private static class Characters implements Event {
+        private final String text;
+        /**
+         * Characters of {@link #text}, or null if the text contains holes.
+         */
+        private final char[] staticText;
+
+        @Override
+        public void replay(MarkupHandler<?> handler, String[] values) throws SAXException {
+            if (staticText != null) {
+                handler.characters(staticText, 0, staticText.length);
+            } else {
+                String filled = fillHoles(text, values);
+                handler.characters(filled.toCharArray(), 0, filled.length());
+            }
+        }
+    }
+
+    private static class Recorder extends DefaultHandler {
+        final List<Event> events = new ArrayList<>();
+        /**
+         * False if a hole ended up somewhere other than text or attribute values.
+         */
+        boolean valid = true;
+
+        @Override
+        public void startElement(String uri, String localName, String qName, Attributes attributes) {
+            boolean hasHoles = false;
+            valid &= !containsHole(qName);
+            for (int i = 0; i < attributes.getLength(); i++) {
+                valid &= !containsHole(attributes.getQName(i));
+                hasHoles |= containsHole(attributes.getValue(i));
+            }
+            events.add(new StartElement(uri, localName, qName, new AttributesImpl(attributes), hasHoles));
+        }
+
+        @Override
+        public void endElement(String uri, String localName, String qName) {
+            events.add(new EndElement(uri, localName, qName));
+        }
+
+        @Override
+        public void characters(char[] ch, int start, int length) {
+            String text = new String(ch, start, length);
+            events.add(new Characters(text, containsHole(text) ? null : text.toCharArray()));
+        }
+    }
+}
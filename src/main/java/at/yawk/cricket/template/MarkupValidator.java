@@ -0,0 +1,149 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package at.yawk.cricket.template;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import lombok.RequiredArgsConstructor;
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * Checks the markup of a template source without rendering it. Handlebars expressions are replaced by a placeholder
+ * first, so values that are only known at render time (like {@code color="{{color}}"}) are not checked. Sections are
+ * checked as if all of their branches were rendered.
+ *
+ * @author yawkat
+ */
+class MarkupValidator {
+    /**
+     * Stands in for any handlebars expression. Taken from the unicode private use area.
+     */
+    private static final char DYNAMIC = '\uE000';
+
+    private static final Set<String> KNOWN_TAGS = new HashSet<>(Arrays.asList(
+            "span", "lf", "hover", "click", "translateUrls",
+            // added by the lexer around documents without a root element
+            "html", "body"
+    ));
+
+    private MarkupValidator() {
+    }
+
+    /**
+     * Validate the given template source and add all problems to the given list.
+     */
+    static void validate(String templateName, String source, List<TemplateProblem> problems) {
+        validateMarkup(templateName, maskExpressions(source), problems);
+    }
+
+    private static void validateMarkup(String templateName, String markup, List<TemplateProblem> problems) {
+        Checker checker;
+        try {
+            checker = MarkupLexer.parse(markup, () -> new Checker(templateName));
+        } catch (IOException | SAXException e) {
+            problems.add(new TemplateProblem(templateName, TemplateProblem.Kind.INVALID_MARKUP, e.getMessage()));
+            return;
+        }
+        problems.addAll(checker.problems);
+        for (String value : checker.componentValues) {
+            validateMarkup(templateName, value, problems);
+        }
+    }
+
+    /**
+     * Replace every handlebars expression with {@link #DYNAMIC} and remove comments.
+     */
+    static String maskExpressions(String source) {
+        StringBuilder markup = new StringBuilder(source.length());
+        int position = 0;
+        while (true) {
+            int open = source.indexOf("{{", position);
+            if (open == -1) {
+                markup.append(source, position, source.length());
+                return markup.toString();
+            }
+            markup.append(source, position, open);
+            String terminator;
+            boolean comment = false;
+            if (source.startsWith("{{!--", open)) {
+                terminator = "--}}";
+                comment = true;
+            } else if (source.startsWith("{{{", open)) {
+                terminator = "}}}";
+            } else {
+                terminator = "}}";
+                comment = source.startsWith("{{!", open);
+            }
+            int close = source.indexOf(terminator, open + 2);
+            if (close == -1) {
+                // unterminated, handlebars reports this as a compile error
+                markup.append(source, open, source.length());
+                return markup.toString();
+            }
+            if (!comment) {
+                markup.append(DYNAMIC);
+            }
+            position = close + terminator.length();
+        }
+    }
+
+    private static boolean isDynamic(String value) {
+        return value.indexOf(DYNAMIC) != -1;
+    }
+
+    @RequiredArgsConstructor
+    private static class Checker extends DefaultHandler {
+        final String templateName;
+        final List<TemplateProblem> problems = new ArrayList<>();
+        /**
+         * Values of events that take component markup, to be checked afterwards.
+         */
+        final List<String> componentValues = new ArrayList<>();
+
+        private void problem(TemplateProblem.Kind kind, String message) {
+            problems.add(new TemplateProblem(templateName, kind, message));
+        }
+
+        @Override
+        public void startElement(String uri, String localName, String qName, Attributes attributes) {
+            if (!KNOWN_TAGS.contains(qName) && !isDynamic(qName)) {
+                problem(TemplateProblem.Kind.UNKNOWN_TAG, "Unknown element <" + qName + ">");
+            }
+
+            String color = attributes.getValue("color");
+            if (color != null && !isDynamic(color) && !MinecraftMarkupConverter.COLOR_BY_NAME.containsKey(color)) {
+                problem(TemplateProblem.Kind.UNKNOWN_COLOR, "Unknown color '" + color + "' on <" + qName + ">");
+            }
+
+            if (qName.equals("hover") || qName.equals("click")) {
+                String action = attributes.getValue("action");
+                String value = attributes.getValue("value");
+                if (action == null) {
+                    problem(TemplateProblem.Kind.MISSING_ATTRIBUTE, "Missing action on <" + qName + ">");
+                } else if (!isDynamic(action) &&
+                           !MinecraftMarkupConverter.ACTION_TYPE_BY_NAME.containsKey(
+                                   action.toLowerCase(Locale.ROOT))) {
+                    problem(TemplateProblem.Kind.UNKNOWN_ACTION,
+                            "Unknown action '" + action + "' on <" + qName + ">, expected one of " +
+                            MinecraftMarkupConverter.ACTION_TYPE_BY_NAME.keySet());
+                }
+                if (value == null) {
+                    problem(TemplateProblem.Kind.MISSING_ATTRIBUTE, "Missing value on <" + qName + ">");
+                } else if (qName.equals("hover") && value.indexOf('<') != -1) {
+                    componentValues.add(value);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,602 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package at.yawk.cricket.template;
+
+import at.yawk.mcomponent.ComponentMinimizer;
+import at.yawk.mcomponent.action.BaseAction;
+import at.yawk.mcomponent.action.BaseEvent;
+import at.yawk.mcomponent.style.FlagKey;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import lombok.Getter;
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+
+/**
+ * MarkupConverter implementation that converts to minecraft chat component JSON (one document each line).
+ *
+ * The output is equivalent to serializing the result of {@link MinecraftMarkupConverter}, but the JSON is written
+ * without building any component objects. The parse events are collected into a tree of reused nodes that follows the
+ * same whitespace collapsing, &lt;lf&gt; and style inheritance rules as the component converter. Each line is then
+ * written from that tree with the merging of {@link ComponentMinimizer#minimizeOne} applied inline:
+ *
+ * <ul>
+ * <li>Children without style and events are replaced by their text and children.</li>
+ * <li>Adjacent plain text children are joined.</li>
+ * <li>A component without text and events that has a single child is merged with that child.</li>
+ * <li>A component without style, events and children is written as a plain string.</li>
+ * </ul>
+ *
+ * Like the pooled {@link MinecraftMarkupConverter}, the parse state of each thread is reused between conversions, and
+ * handlers from {@link #createHandler()} must not be used after {@link MarkupHandler#getResult()} was called.
+ *
+ * @author yawkat
+ */
+public class MinecraftJsonMarkupConverter implements MarkupConverter<List<String>> {
+    private static final JsonFactory JSON_FACTORY = new JsonFactory()
+            .disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET)
+            .setRootValueSeparator(null);
+
+    private static final FlagKey[] FLAG_KEYS = FlagKey.values();
+    private static final char[] LINE_FEED = { '\n' };
+    /**
+     * Lower case action names as written to the JSON, by {@link BaseAction.Type} ordinal.
+     */
+    private static final String[] ACTION_NAMES = new String[BaseAction.Type.values().length];
+
+    static {
+        for (BaseAction.Type type : BaseAction.Type.values()) {
+            ACTION_NAMES[type.ordinal()] = type.name().toLowerCase(Locale.ROOT);
+        }
+    }
+
+    /**
+     * See {@link MinecraftMarkupConverter}: nested converters are needed for hover text, and converters that grew
+     * too large are dropped.
+     */
+    private static final int MAX_POOLED_CONVERTERS = 4;
+    private static final int MAX_POOLED_NODES = 1024;
+    private static final int MAX_POOLED_TEXT_CAPACITY = 1024;
+
+    @Getter private static final MinecraftJsonMarkupConverter instance =
+            new MinecraftJsonMarkupConverter(false, UrlScanner.getDefaultScanner());
+    @Getter private static final MinecraftJsonMarkupConverter instanceWithLinefeeds =
+            new MinecraftJsonMarkupConverter(true, UrlScanner.getDefaultScanner());
+
+    /**
+     * If this is true, &lt;lf&gt; is translated to \n (as used in kick packets), otherwise it will cause a new
+     * component to be started.
+     */
+    private final boolean keepLinefeeds;
+    private final UrlScanner urlScanner;
+    /**
+     * Lower case name of the click action of links, as written to the JSON.
+     */
+    private final String urlActionName;
+    /**
+     * Idle converters of each thread.
+     */
+    private final ThreadLocal<ArrayDeque<JsonConverter>> pool = ThreadLocal.withInitial(ArrayDeque::new);
+
+    private MinecraftJsonMarkupConverter(boolean keepLinefeeds, UrlScanner urlScanner) {
+        this.keepLinefeeds = keepLinefeeds;
+        this.urlScanner = urlScanner;
+        this.urlActionName = ACTION_NAMES[urlScanner.getClickAction().ordinal()];
+    }
+
+    /**
+     * Return a converter that behaves like this one, but finds the links in translateUrls elements with the given
+     * scanner.
+     */
+    public MinecraftJsonMarkupConverter withUrlScanner(UrlScanner urlScanner) {
+        return new MinecraftJsonMarkupConverter(keepLinefeeds, urlScanner);
+    }
+
+    @Override
+    public List<String> convert(String xml) {
+        JsonConverter converter = acquire();
+        try {
+            if (converter.buffer.length < xml.length()) {
+                converter.buffer = new char[Math.max(xml.length(), converter.buffer.length * 2)];
+            }
+            xml.getChars(0, xml.length(), converter.buffer, 0);
+            return converter.lexer.reparse(converter.buffer, xml.length(), converter, JsonConverter::new)
+                    .writeLines();
+        } catch (IOException | SAXException e) {
+            throw new RuntimeException(e);
+        } finally {
+            release(converter);
+        }
+    }
+
+    @Override
+    public MarkupHandler<List<String>> createHandler() {
+        return acquire();
+    }
+
+    private JsonConverter acquire() {
+        JsonConverter converter = pool.get().pollFirst();
+        return converter == null ? new JsonConverter() : converter;
+    }
+
+    private void release(JsonConverter converter) {
+        if (converter.nodes.size() <= MAX_POOLED_NODES && converter.outs.size() <= MAX_POOLED_NODES) {
+            ArrayDeque<JsonConverter> idle = pool.get();
+            if (idle.size() < MAX_POOLED_CONVERTERS) {
+                converter.reset();
+                idle.addFirst(converter);
+            }
+        }
+    }
+
+    /**
+     * An element or run of text of the parsed markup. Mirrors the component converter's nodes, with the style and
+     * event kept as the values that are written.
+     */
+    private static class Node {
+        Node parent;
+        StringBuilder text = new StringBuilder();
+        final List<Node> members = new ArrayList<>();
+        /**
+         * Color name as written to the JSON, or null.
+         */
+        String color;
+        /**
+         * Bit set of {@link FlagKey} ordinals.
+         */
+        int flags;
+        /**
+         * May be null.
+         */
+        BaseEvent.Type eventType;
+        String actionName;
+        /**
+         * Click value or insertion text, or the component JSON for hover events.
+         */
+        String actionValue;
+        boolean fromText;
+        boolean translateUrls;
+
+        void reset() {
+            parent = null;
+            if (text.capacity() > MAX_POOLED_TEXT_CAPACITY) {
+                text = new StringBuilder();
+            } else {
+                text.setLength(0);
+            }
+            members.clear();
+            color = null;
+            flags = 0;
+            eventType = null;
+            actionName = null;
+            actionValue = null;
+            fromText = false;
+            translateUrls = false;
+        }
+
+        boolean hasStyle() {
+            return color != null || flags != 0;
+        }
+
+        boolean empty() {
+            return text.length() <= 0 && members.isEmpty() && eventType == null;
+        }
+    }
+
+    /**
+     * A minimized component, ready to be written.
+     */
+    private static class Out {
+        StringBuilder text = new StringBuilder();
+        String color;
+        int flags;
+        BaseEvent.Type eventType;
+        String actionName;
+        String actionValue;
+        ArrayList<Out> children = new ArrayList<>();
+
+        void reset() {
+            if (text.capacity() > MAX_POOLED_TEXT_CAPACITY) {
+                text = new StringBuilder();
+            } else {
+                text.setLength(0);
+            }
+            color = null;
+            flags = 0;
+            eventType = null;
+            actionName = null;
+            actionValue = null;
+            children.clear();
+        }
+
+        /**
+         * Whether this component has neither style nor events, so it adds nothing to its text and children.
+         */
+        boolean unstyled() {
+            return color == null && flags == 0 && eventType == null;
+        }
+
+        boolean plain() {
+            return unstyled() && children.isEmpty();
+        }
+    }
+
+    private class JsonConverter extends MarkupHandler<List<String>> {
+        /**
+         * All nodes used by this converter. Nodes are reset and reused by {@link #newNode()} after {@link #reset()}.
+         */
+        private final List<Node> nodes = new ArrayList<>();
+        private int nodeCount = 0;
+        private final List<Out> outs = new ArrayList<>();
+        private int outCount = 0;
+        private final List<Node> lines = new ArrayList<>();
+        private Node root;
+        private Node current;
+        private boolean whitespace;
+        private boolean text;
+
+        private final StringWriter lineWriter = new StringWriter();
+        private final JsonGenerator generator;
+        private char[] textBuffer = new char[64];
+
+        private final MarkupLexer lexer = new MarkupLexer();
+        private char[] buffer = new char[256];
+
+        JsonConverter() {
+            try {
+                generator = JSON_FACTORY.createGenerator(lineWriter);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            reset();
+        }
+
+        private void reset() {
+            for (int i = 0; i < nodeCount; i++) {
+                nodes.get(i).reset();
+            }
+            nodeCount = 0;
+            for (int i = 0; i < outCount; i++) {
+                outs.get(i).reset();
+            }
+            outCount = 0;
+            lines.clear();
+            current = root = newNode();
+            lines.add(root);
+            whitespace = true;
+            text = false;
+        }
+
+        private Node newNode() {
+            Node node;
+            if (nodeCount < nodes.size()) {
+                node = nodes.get(nodeCount);
+            } else {
+                node = new Node();
+                nodes.add(node);
+            }
+            nodeCount++;
+            return node;
+        }
+
+        private Out newOut() {
+            Out out;
+            if (outCount < outs.size()) {
+                out = outs.get(outCount);
+            } else {
+                out = new Out();
+                outs.add(out);
+            }
+            outCount++;
+            return out;
+        }
+
+        @Override
+        public List<String> getResult() {
+            List<String> result = writeLines();
+            release(this);
+            return result;
+        }
+
+        List<String> writeLines() {
+            if (!text) { lines.remove(lines.size() - 1); }
+            List<String> result = new ArrayList<>(lines.size());
+            try {
+                for (Node line : lines) {
+                    write(build(line, true));
+                    generator.flush();
+                    result.add(lineWriter.toString());
+                    lineWriter.getBuffer().setLength(0);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return result;
+        }
+
+        @Override
+        public void startElement(String uri, String localName, String qName, Attributes attributes) {
+            if (qName.equals("lf")) {
+                if (keepLinefeeds) {
+                    characters0(LINE_FEED, 0, 1, true);
+                    whitespace = true;
+                } else {
+                    if (!text) {
+                        lines.remove(lines.size() - 1);
+                    }
+                    current = root = copyStyle(current);
+                    whitespace = true;
+                    text = false;
+                    lines.add(root);
+                }
+                return;
+            }
+
+            while (current.fromText) {
+                current = current.parent;
+            }
+
+            Node newNode = newNode();
+            current.members.add(newNode);
+            newNode.parent = current;
+            newNode.translateUrls = current.translateUrls;
+            current = newNode;
+
+            if (qName.equals("hover")) {
+                parseEvent(BaseEvent.Type.HOVER, attributes);
+            } else if (qName.equals("click")) {
+                if (attributes.getValue("shift") != null) {
+                    parseEvent(BaseEvent.Type.SHIFT_CLICK, attributes);
+                } else {
+                    parseEvent(BaseEvent.Type.CLICK, attributes);
+                }
+            } else if (qName.equals("translateUrls")) {
+                current.translateUrls = true;
+            }
+
+            String color = attributes.getValue("color");
+            if (color != null && MinecraftMarkupConverter.COLOR_BY_NAME.containsKey(color)) {
+                current.color = color;
+            }
+
+            for (FlagKey key : FLAG_KEYS) {
+                if (attributes.getValue(key.getKey()) != null) {
+                    current.flags |= 1 << key.ordinal();
+                }
+            }
+        }
+
+        private void parseEvent(BaseEvent.Type eventType, Attributes attributes) {
+            String typeName = attributes.getValue("action");
+            BaseAction.Type type = MinecraftMarkupConverter.ACTION_TYPE_BY_NAME.get(typeName);
+            if (type == null) {
+                type = BaseAction.Type.valueOf(typeName.toUpperCase());
+            }
+            String valueString = attributes.getValue("value");
+            current.eventType = eventType;
+            current.actionName = ACTION_NAMES[type.ordinal()];
+            current.actionValue = eventType == BaseEvent.Type.HOVER ? convert(valueString).get(0) : valueString;
+        }
+
+        @Override
+        public void endElement(String uri, String localName, String qName) {
+            if (qName.equals("lf")) {
+                return;
+            }
+
+            while (current.fromText) {
+                current = current.parent;
+            }
+            current = current.parent;
+        }
+
+        @Override
+        public void characters(char[] ch, int start, int length) {
+            characters0(ch, start, length, false);
+        }
+
+        private void characters0(char[] ch, int start, int length, boolean exact) {
+            if (!current.members.isEmpty()) {
+                Node newNode = newNode();
+                current.members.add(newNode);
+                newNode.parent = current;
+                newNode.fromText = true;
+                newNode.translateUrls = current.translateUrls;
+                current = newNode;
+            }
+
+            current.text.ensureCapacity(current.text.length() + length);
+            for (int i = 0; i < length; i++) {
+                char c = ch[i + start];
+                if (!exact && (c == '\n' || c == '\r')) {
+                    c = ' ';
+                }
+                if (whitespace) {
+                    if (!Character.isWhitespace(c)) {
+                        current.text.append(c);
+                        whitespace = false;
+                    } else if (exact) {
+                        current.text.append(c);
+                    }
+                } else {
+                    current.text.append(c);
+                    whitespace = Character.isWhitespace(c);
+                }
+            }
+            text |= current.text.length() > 0;
+        }
+
+        private Node copyStyle(Node source) {
+            Node p = source.parent == null ? null : copyStyle(source.parent);
+            if (source.fromText && source.eventType == null && !source.hasStyle()) {
+                return p;
+            }
+            Node node = newNode();
+            node.color = source.color;
+            node.flags = source.flags;
+            node.eventType = source.eventType;
+            node.actionName = source.actionName;
+            node.actionValue = source.actionValue;
+            node.parent = p;
+            node.translateUrls = source.translateUrls;
+            return node;
+        }
+
+        /**
+         * Build the minimized component of the given node, or return null if it is omitted. The node rules are those
+         * of the component converter, the merging those of the minimizer.
+         */
+        private Out build(Node node, boolean root) {
+            if (!root) {
+                if (node.empty()) {
+                    return null;
+                }
+                if (node.members.isEmpty() && node.eventType == null && !node.hasStyle() && !node.translateUrls) {
+                    Out out = newOut();
+                    out.text.append(node.text);
+                    return out;
+                }
+            }
+            Out out = newOut();
+            out.color = node.color;
+            out.flags = node.flags;
+            out.eventType = node.eventType;
+            out.actionName = node.actionName;
+            out.actionValue = node.actionValue;
+            if (node.translateUrls) {
+                appendUrls(out, node.text);
+            } else {
+                out.text.append(node.text);
+            }
+            for (Node member : node.members) {
+                Out child = build(member, false);
+                if (child != null) {
+                    addChild(out, child);
+                }
+            }
+            if (out.text.length() <= 0 && out.eventType == null && out.children.size() == 1) {
+                mergeChild(out);
+            }
+            return out;
+        }
+
+        private void addChild(Out parent, Out child) {
+            if (!child.unstyled()) {
+                parent.children.add(child);
+                return;
+            }
+            appendText(parent, child.text, 0, child.text.length());
+            for (Out grandchild : child.children) {
+                addChild(parent, grandchild);
+            }
+        }
+
+        private void appendText(Out parent, CharSequence text, int start, int end) {
+            if (start >= end) {
+                return;
+            }
+            ArrayList<Out> children = parent.children;
+            Out last = children.isEmpty() ? null : children.get(children.size() - 1);
+            if (last == null || !last.plain()) {
+                last = newOut();
+                children.add(last);
+            }
+            last.text.append(text, start, end);
+        }
+
+        /**
+         * Merge the only child of the given component into it. The child's style takes precedence.
+         */
+        private void mergeChild(Out out) {
+            Out child = out.children.get(0);
+            out.text.append(child.text);
+            if (child.color != null) {
+                out.color = child.color;
+            }
+            out.flags |= child.flags;
+            out.eventType = child.eventType;
+            out.actionName = child.actionName;
+            out.actionValue = child.actionValue;
+            ArrayList<Out> children = out.children;
+            out.children = child.children;
+            child.children = children;
+            children.clear();
+        }
+
+        private void appendUrls(Out out, StringBuilder text) {
+            int plainStart = 0;
+            for (int start = urlScanner.findLink(text, 0); start != -1; start = urlScanner.findLink(text, plainStart)) {
+                appendText(out, text, plainStart, start);
+                int end = urlScanner.linkEnd(text, start);
+                Out link = newOut();
+                link.text.append(text, start, end);
+                link.eventType = BaseEvent.Type.CLICK;
+                link.actionName = urlActionName;
+                link.actionValue = urlScanner.clickValue(text, start, end);
+                out.children.add(link);
+                plainStart = end;
+            }
+            appendText(out, text, plainStart, text.length());
+        }
+
+        private void write(Out out) throws IOException {
+            if (out.plain()) {
+                writeString(out.text);
+                return;
+            }
+            generator.writeStartObject();
+            generator.writeFieldName("text");
+            writeString(out.text);
+            if (out.color != null) {
+                generator.writeStringField("color", out.color);
+            }
+            for (FlagKey key : FLAG_KEYS) {
+                if ((out.flags & (1 << key.ordinal())) != 0) {
+                    generator.writeBooleanField(key.getKey(), true);
+                }
+            }
+            if (out.eventType == BaseEvent.Type.HOVER) {
+                generator.writeObjectFieldStart("hoverEvent");
+                generator.writeStringField("action", out.actionName);
+                generator.writeFieldName("value");
+                generator.writeRawValue(out.actionValue);
+                generator.writeEndObject();
+            } else if (out.eventType == BaseEvent.Type.CLICK) {
+                generator.writeObjectFieldStart("clickEvent");
+                generator.writeStringField("action", out.actionName);
+                generator.writeStringField("value", out.actionValue);
+                generator.writeEndObject();
+            } else if (out.eventType == BaseEvent.Type.SHIFT_CLICK) {
+                generator.writeStringField("insertion", out.actionValue);
+            }
+            if (!out.children.isEmpty()) {
+                generator.writeArrayFieldStart("extra");
+                for (Out child : out.children) {
+                    write(child);
+                }
+                generator.writeEndArray();
+            }
+            generator.writeEndObject();
+        }
+
+        private void writeString(StringBuilder builder) throws IOException {
+            int length = builder.length();
+            if (textBuffer.length < length) {
+                textBuffer = new char[Math.max(length, textBuffer.length * 2)];
+            }
+            builder.getChars(0, length, textBuffer, 0);
+            generator.writeString(textBuffer, 0, length);
+        }
+    }
+}
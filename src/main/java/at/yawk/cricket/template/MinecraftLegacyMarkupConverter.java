@@ -6,22 +6,363 @@
 
 package at.yawk.cricket.template;
 
+import at.yawk.mcomponent.BaseComponent;
+import at.yawk.mcomponent.Component;
+import at.yawk.mcomponent.ComponentValue;
 import at.yawk.mcomponent.LegacyConverter;
+import at.yawk.mcomponent.StringComponentValue;
+import at.yawk.mcomponent.action.BaseAction;
+import at.yawk.mcomponent.style.Color;
+import at.yawk.mcomponent.style.FlagKey;
+import at.yawk.mcomponent.style.FlagValue;
+import at.yawk.mcomponent.style.Style;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.stream.Collectors;
 import lombok.Getter;
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
 
 /**
+ * MarkupConverter implementation that converts to legacy minecraft strings with § formatting codes (one each line).
+ *
+ * The output is equivalent to converting the result of {@link MinecraftMarkupConverter} with
+ * {@link LegacyConverter#toLegacyString(Component)}, but the strings are written directly from the parse events: only
+ * the color and flags of the open elements are tracked, and events are dropped without being built. The formatting
+ * codes for each style are still produced by {@link LegacyConverter}, once per style.
+ *
  * @author yawkat
  */
 public class MinecraftLegacyMarkupConverter implements MarkupConverter<List<String>> {
     @Getter private static final MarkupConverter<List<String>> instance = new MinecraftLegacyMarkupConverter();
 
+    /**
+     * Conversion through {@link MinecraftMarkupConverter} components, which this converter replaces. Kept to compare
+     * the output of both.
+     */
+    static final MarkupConverter<List<String>> COMPONENT_INSTANCE = new MarkupConverter<List<String>>() {
+        @Override
+        public List<String> convert(String xml) {
+            return MinecraftMarkupConverter.getInstance()
+                    .convertStream(xml)
+                    .map(LegacyConverter::toLegacyString)
+                    .collect(Collectors.toList());
+        }
+
+        @Override
+        public MarkupHandler<List<String>> createHandler() {
+            return MinecraftMarkupConverter.getInstance().createHandler().map(
+                    components -> components.stream()
+                            .map(LegacyConverter::toLegacyString)
+                            .collect(Collectors.toList()));
+        }
+    };
+
+    private static final FlagKey[] FLAG_KEYS = FlagKey.values();
+    private static final Color[] COLORS = Color.values();
+
+    /**
+     * Formatting codes by style index, see {@link #styleIndex(Color, int)}. Filled lazily; racing threads compute the
+     * same string.
+     */
+    private static final String[] PREFIXES = new String[(COLORS.length + 1) << FLAG_KEYS.length];
+
+    public MinecraftLegacyMarkupConverter() {
+    }
+
     @Override
     public List<String> convert(String xml) {
-        return MinecraftMarkupConverter.getInstance()
-                .convertStream(xml)
-                .map(LegacyConverter::toLegacyString)
-                .collect(Collectors.toList());
+        try {
+            return MarkupLexer.parse(xml, LegacyEmitter::new).getResult();
+        } catch (IOException | SAXException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public MarkupHandler<List<String>> createHandler() {
+        return new LegacyEmitter();
+    }
+
+    private static int styleIndex(Color color, int flags) {
+        return ((color == null ? 0 : color.ordinal() + 1) << FLAG_KEYS.length) | flags;
+    }
+
+    private static Style toStyle(Color color, int flags) {
+        Style style = Style.INHERIT;
+        if (color != null) {
+            style = style.withColor(color);
+        }
+        for (FlagKey key : FLAG_KEYS) {
+            if ((flags & (1 << key.ordinal())) != 0) {
+                style = style.withFlag(key, FlagValue.TRUE);
+            }
+        }
+        return style;
+    }
+
+    /**
+     * The legacy string of an empty component with the given style.
+     */
+    private static String prefix(Color color, int flags) {
+        int index = styleIndex(color, flags);
+        String prefix = PREFIXES[index];
+        if (prefix == null) {
+            prefix = LegacyConverter.toLegacyString(new BaseComponent(
+                    new StringComponentValue(""), Collections.emptyList(), toStyle(color, flags),
+                    Collections.emptySet()));
+            PREFIXES[index] = prefix;
+        }
+        return prefix;
+    }
+
+    /**
+     * An open element. Mirrors a node of the component tree, but only holds what affects the legacy string.
+     */
+    private static class Frame {
+        Color color;
+        /**
+         * Bit set of {@link FlagKey} ordinals.
+         */
+        int flags;
+        /**
+         * Style including the inherited parts, from the line root down.
+         */
+        Color effectiveColor;
+        int effectiveFlags;
+        boolean hasEvents;
+        boolean translateUrls;
+        /**
+         * Ancestors of the line root after a &lt;lf&gt; are not part of any line, their text is dropped.
+         */
+        boolean detached;
+        /**
+         * Whether this element's component has been written. Components are written as soon as they are known not to
+         * be empty, which is before any of their members.
+         */
+        boolean opened;
+        /**
+         * Whether this element contains other elements. Text that follows them forms components of its own.
+         */
+        boolean hasMembers;
+
+        void reset(Frame parent) {
+            color = null;
+            flags = 0;
+            effectiveColor = parent == null ? null : parent.effectiveColor;
+            effectiveFlags = parent == null ? 0 : parent.effectiveFlags;
+            hasEvents = false;
+            translateUrls = parent != null && parent.translateUrls;
+            detached = parent != null && parent.detached;
+            opened = false;
+            hasMembers = false;
+        }
+    }
+
+    private static class LegacyEmitter extends MarkupHandler<List<String>> {
+        private final List<String> lines = new ArrayList<>();
+        private final StringBuilder line = new StringBuilder();
+
+        /**
+         * Open elements, the current one is at {@link #depth}. The parent of each frame is the one below it.
+         */
+        private Frame[] stack = new Frame[8];
+        private int depth = 0;
+
+        /**
+         * Text of the current component that was not written yet: either the own text of the current element or, if
+         * {@link #inTextComponent} is set, the text that follows its last member.
+         */
+        private final StringBuilder pending = new StringBuilder();
+        private boolean inTextComponent;
+        /**
+         * Index of the element whose component is the root of the current line, or -1 once that element was closed.
+         */
+        private int lineRoot = 0;
+
+        private boolean whitespace = true;
+        private boolean text = false;
+
+        LegacyEmitter() {
+            stack[0] = new Frame();
+            stack[0].reset(null);
+        }
+
+        @Override
+        public List<String> getResult() {
+            flushText();
+            finishLine();
+            return lines;
+        }
+
+        private void finishLine() {
+            if (text) {
+                // the line root is written even if it is empty
+                if (lineRoot != -1) {
+                    open(stack[lineRoot], "");
+                }
+                lines.add(line.toString());
+            }
+            line.setLength(0);
+        }
+
+        /**
+         * Write the component of the given element with the given own text, if it was not written yet.
+         */
+        private void open(Frame frame, String ownText) {
+            if (frame.opened || frame.detached) {
+                return;
+            }
+            frame.opened = true;
+            write(frame, ownText);
+        }
+
+        private void write(Frame frame, String text) {
+            if (frame.translateUrls) {
+                List<Component> urls = new ArrayList<>();
+                UrlScanner.getDefaultScanner().appendComponents(text, urls);
+                line.append(LegacyConverter.toLegacyString(new BaseComponent(
+                        ComponentValue.EMPTY,
+                        urls,
+                        toStyle(frame.effectiveColor, frame.effectiveFlags),
+                        Collections.emptySet())));
+            } else {
+                line.append(prefix(frame.effectiveColor, frame.effectiveFlags)).append(text);
+            }
+        }
+
+        /**
+         * Write the pending text of the current component. Called when the component is complete.
+         */
+        private void flushText() {
+            Frame frame = stack[depth];
+            if (inTextComponent) {
+                if (pending.length() > 0 && !frame.detached) {
+                    write(frame, pending.toString());
+                }
+            } else if (pending.length() > 0) {
+                open(frame, pending.toString());
+            }
+            pending.setLength(0);
+        }
+
+        @Override
+        public void startElement(String uri, String localName, String qName, Attributes attributes) {
+            if (qName.equals("lf")) {
+                flushText();
+                Frame current = stack[depth];
+                if (current.hasEvents) {
+                    open(current, "");
+                }
+                finishLine();
+                // the current element becomes the root of the new line, with only its own style
+                for (int i = 0; i < depth; i++) {
+                    stack[i].detached = true;
+                }
+                Frame root = stack[depth];
+                root.detached = false;
+                root.opened = false;
+                root.hasMembers = false;
+                root.effectiveColor = root.color;
+                root.effectiveFlags = root.flags;
+                lineRoot = depth;
+                inTextComponent = false;
+                whitespace = true;
+                text = false;
+                return;
+            }
+
+            flushText();
+            Frame parent = stack[depth];
+            // elements with members are never empty
+            open(parent, "");
+            parent.hasMembers = true;
+            inTextComponent = false;
+
+            if (++depth == stack.length) {
+                stack = Arrays.copyOf(stack, depth * 2);
+            }
+            Frame frame = stack[depth];
+            if (frame == null) {
+                frame = stack[depth] = new Frame();
+            }
+            frame.reset(parent);
+
+            if (qName.equals("hover") || qName.equals("click")) {
+                // the event itself is dropped, but parsing it must fail like it does for components
+                String typeName = attributes.getValue("action");
+                if (!MinecraftMarkupConverter.ACTION_TYPE_BY_NAME.containsKey(typeName)) {
+                    BaseAction.Type.valueOf(typeName.toUpperCase());
+                }
+                frame.hasEvents = true;
+            } else if (qName.equals("translateUrls")) {
+                frame.translateUrls = true;
+            }
+
+            Color color = MinecraftMarkupConverter.COLOR_BY_NAME.get(attributes.getValue("color"));
+            if (color != null) {
+                frame.color = color;
+                frame.effectiveColor = color;
+            }
+            for (FlagKey key : FLAG_KEYS) {
+                if (attributes.getValue(key.getKey()) != null) {
+                    frame.flags |= 1 << key.ordinal();
+                }
+            }
+            frame.effectiveFlags |= frame.flags;
+        }
+
+        @Override
+        public void endElement(String uri, String localName, String qName) {
+            if (qName.equals("lf")) {
+                return;
+            }
+
+            flushText();
+            Frame frame = stack[depth];
+            if (frame.hasEvents || depth == lineRoot) {
+                // the line root is written even if it is empty, but it may not be reached by finishLine anymore
+                open(frame, "");
+            }
+            if (depth == lineRoot) {
+                lineRoot = -1;
+            }
+            if (depth > 0) {
+                depth--;
+            }
+            // text after this element belongs to a new component of the parent
+            inTextComponent = true;
+        }
+
+        @Override
+        public void characters(char[] ch, int start, int length) {
+            if (stack[depth].hasMembers) {
+                inTextComponent = true;
+            }
+            for (int i = 0; i < length; i++) {
+                char c = ch[i + start];
+                if (c == '\n' || c == '\r') {
+                    c = ' ';
+                }
+                if (whitespace) {
+                    if (!Character.isWhitespace(c)) {
+                        pending.append(c);
+                        whitespace = false;
+                    }
+                } else {
+                    pending.append(c);
+                    whitespace = Character.isWhitespace(c);
+                }
+            }
+            text |= pending.length() > 0;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return MinecraftLegacyMarkupConverter.class.getSimpleName();
     }
 }
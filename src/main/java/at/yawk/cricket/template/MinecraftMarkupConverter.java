@@ -15,17 +15,14 @@ import at.yawk.mcomponent.style.FlagKey;
 import at.yawk.mcomponent.style.FlagValue;
 import at.yawk.mcomponent.style.Style;
 import java.io.IOException;
-import java.io.StringReader;
 import java.util.*;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 import lombok.Getter;
 import lombok.ToString;
-import org.ccil.cowan.tagsoup.Parser;
+import lombok.Value;
 import org.xml.sax.Attributes;
-import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
-import org.xml.sax.helpers.DefaultHandler;
 
 /**
  * MarkupConverter implementation that converts to a list of minecraft components (one each line).
@@ -33,62 +30,234 @@ import org.xml.sax.helpers.DefaultHandler;
  * @author yawkat
  */
 public class MinecraftMarkupConverter implements MarkupConverter<List<Component>> {
-    private static final Map<String, Color> COLOR_BY_NAME = new HashMap<String, Color>() {{
+    static final Map<String, Color> COLOR_BY_NAME = new HashMap<String, Color>() {{
         for (Color color : Color.values()) {
             color.getName().ifPresent(name -> put(name, color));
         }
     }};
 
-    @Getter private static final MinecraftMarkupConverter instance = new MinecraftMarkupConverter(false);
-    @Getter private static final MinecraftMarkupConverter instanceWithLinefeeds = new MinecraftMarkupConverter(true);
+    /**
+     * Action types by lower case name, to avoid upper-casing the attribute value of every event.
+     */
+    static final Map<String, BaseAction.Type> ACTION_TYPE_BY_NAME = new HashMap<String, BaseAction.Type>() {{
+        for (BaseAction.Type type : BaseAction.Type.values()) {
+            put(type.name().toLowerCase(Locale.ROOT), type);
+        }
+    }};
+    private static final FlagKey[] FLAG_KEYS = FlagKey.values();
+    private static final char[] LINE_FEED = { '\n' };
+
+    /**
+     * Maximum number of idle converters kept per thread. More than one is needed because hover text is converted while
+     * the enclosing markup is still being converted.
+     */
+    private static final int MAX_POOLED_CONVERTERS = 4;
+    /**
+     * Converters that grew beyond this many nodes are not pooled, so a single huge document does not stay in memory.
+     */
+    private static final int MAX_POOLED_NODES = 1024;
+    private static final int MAX_POOLED_TEXT_CAPACITY = 1024;
+
+    @Getter private static final MinecraftMarkupConverter instance =
+            new MinecraftMarkupConverter(false, false, null, UrlScanner.getDefaultScanner());
+    @Getter private static final MinecraftMarkupConverter instanceWithLinefeeds =
+            new MinecraftMarkupConverter(true, false, null, UrlScanner.getDefaultScanner());
+    /**
+     * Like {@link #getInstance()}, but reuses the parse state of each thread between conversions, so converting is
+     * close to allocation-free apart from the returned components. Handlers from {@link #createHandler()} of this
+     * converter must not be used after {@link MarkupHandler#getResult()} was called.
+     */
+    @Getter private static final MinecraftMarkupConverter pooledInstance =
+            new MinecraftMarkupConverter(false, true, null, UrlScanner.getDefaultScanner());
+    /**
+     * Pooled variant of {@link #getInstanceWithLinefeeds()}, see {@link #getPooledInstance()}.
+     */
+    @Getter private static final MinecraftMarkupConverter pooledInstanceWithLinefeeds =
+            new MinecraftMarkupConverter(true, true, null, UrlScanner.getDefaultScanner());
 
     /**
      * If this is true, &lt;lf&gt; is translated to \n (as used in kick packets), otherwise it will cause a new
      * component to be started.
      */
     private final boolean keepLinefeeds;
+    /**
+     * Idle converters of each thread, or null if this converter does not pool its parse state.
+     */
+    private final ThreadLocal<ArrayDeque<ComponentConverter>> pool;
+    /**
+     * May be null.
+     */
+    private final ComponentInterner interner;
+    private final UrlScanner urlScanner;
 
-    private MinecraftMarkupConverter(boolean keepLinefeeds) {
+    private MinecraftMarkupConverter(boolean keepLinefeeds,
+                                     boolean pooled,
+                                     ComponentInterner interner,
+                                     UrlScanner urlScanner) {
         this.keepLinefeeds = keepLinefeeds;
+        this.pool = pooled ? ThreadLocal.withInitial(ArrayDeque::new) : null;
+        this.interner = interner;
+        this.urlScanner = urlScanner;
+    }
+
+    /**
+     * Return a converter that behaves like this one, but shares identical components, events and styles between its
+     * results through the given interner. Repeated fragments then only need to be minimized once, and hover text that
+     * was converted before is not converted again.
+     */
+    public MinecraftMarkupConverter withInterner(ComponentInterner interner) {
+        return new MinecraftMarkupConverter(keepLinefeeds, pool != null, interner, urlScanner);
+    }
+
+    /**
+     * Return a converter that behaves like this one, but finds the links in translateUrls elements with the given
+     * scanner.
+     */
+    public MinecraftMarkupConverter withUrlScanner(UrlScanner urlScanner) {
+        return new MinecraftMarkupConverter(keepLinefeeds, pool != null, interner, urlScanner);
     }
 
     @Override
     public List<Component> convert(String xml) {
+        if (pool != null) {
+            return convertPooled(xml);
+        }
         return convertStream(xml).collect(Collectors.toList());
     }
 
+    @Override
+    public MarkupHandler<List<Component>> createHandler() {
+        return acquire();
+    }
+
     protected Stream<Component> convertStream(String xml) {
-        Parser parser = new Parser();
-        ComponentConverter converter = new ComponentConverter();
-        parser.setContentHandler(converter);
+        if (pool != null) {
+            return convertPooled(xml).stream();
+        }
+        ComponentConverter converter;
         try {
-            parser.parse(new InputSource(new StringReader(xml)));
+            converter = MarkupLexer.parse(xml, ComponentConverter::new);
         } catch (IOException | SAXException e) {
             throw new RuntimeException(e);
         }
-        if (!converter.text) { converter.lines.remove(converter.lines.size() - 1); }
-        return converter.lines.stream().map(n -> n.build(true));
+        return converter.stream();
+    }
+
+    private List<Component> convertPooled(String xml) {
+        ComponentConverter converter = acquire();
+        try {
+            if (converter.buffer.length < xml.length()) {
+                converter.buffer = new char[Math.max(xml.length(), converter.buffer.length * 2)];
+            }
+            xml.getChars(0, xml.length(), converter.buffer, 0);
+            return converter.lexer.reparse(converter.buffer, xml.length(), converter, ComponentConverter::new)
+                    .buildLines();
+        } catch (IOException | SAXException e) {
+            throw new RuntimeException(e);
+        } finally {
+            release(converter);
+        }
+    }
+
+    private ComponentConverter acquire() {
+        if (pool != null) {
+            ComponentConverter converter = pool.get().pollFirst();
+            if (converter != null) {
+                return converter;
+            }
+        }
+        return new ComponentConverter();
+    }
+
+    private void release(ComponentConverter converter) {
+        if (pool != null && converter.nodes.size() <= MAX_POOLED_NODES) {
+            ArrayDeque<ComponentConverter> idle = pool.get();
+            if (idle.size() < MAX_POOLED_CONVERTERS) {
+                converter.reset();
+                idle.addFirst(converter);
+            }
+        }
     }
 
-    private class ComponentConverter extends DefaultHandler {
-        private ComponentNode root = new ComponentNode();
-        private List<ComponentNode> lines = new ArrayList<>(Collections.singleton(root));
-        private ComponentNode current = root;
-        private boolean whitespace = true;
-        private boolean text = false;
+    private class ComponentConverter extends MarkupHandler<List<Component>> {
+        /**
+         * All nodes used by this converter. Nodes are reset and reused by {@link #newNode()} after {@link #reset()}.
+         */
+        private final List<ComponentNode> nodes = new ArrayList<>();
+        private int nodeCount = 0;
+        private final List<ComponentNode> lines = new ArrayList<>();
+        private ComponentNode root;
+        private ComponentNode current;
+        private boolean whitespace;
+        private boolean text;
+
+        /**
+         * Only used when pooled.
+         */
+        private final MarkupLexer lexer = pool == null ? null : new MarkupLexer();
+        private char[] buffer = pool == null ? null : new char[256];
+
+        ComponentConverter() {
+            reset();
+        }
+
+        private void reset() {
+            for (int i = 0; i < nodeCount; i++) {
+                nodes.get(i).reset();
+            }
+            nodeCount = 0;
+            lines.clear();
+            current = root = newNode();
+            lines.add(root);
+            whitespace = true;
+            text = false;
+        }
+
+        private ComponentNode newNode() {
+            ComponentNode node;
+            if (nodeCount < nodes.size()) {
+                node = nodes.get(nodeCount);
+            } else {
+                node = new ComponentNode();
+                nodes.add(node);
+            }
+            nodeCount++;
+            return node;
+        }
+
+        Stream<Component> stream() {
+            if (!text) { lines.remove(lines.size() - 1); }
+            return lines.stream().map(n -> n.build(true, false, interner, urlScanner));
+        }
+
+        List<Component> buildLines() {
+            if (!text) { lines.remove(lines.size() - 1); }
+            List<Component> components = new ArrayList<>(lines.size());
+            for (ComponentNode line : lines) {
+                components.add(line.build(true, pool != null, interner, urlScanner));
+            }
+            return components;
+        }
+
+        @Override
+        public List<Component> getResult() {
+            List<Component> result = buildLines();
+            release(this);
+            return result;
+        }
 
         @Override
         public void startElement(String uri, String localName, String qName, Attributes attributes) {
             if (qName.equals("lf")) {
                 if (keepLinefeeds) {
-                    characters0(new char[]{ '\n' }, 0, 1, true);
+                    characters0(LINE_FEED, 0, 1, true);
                     whitespace = true;
                     return;
                 } else {
                     if (!text) {
                         lines.remove(lines.size() - 1);
                     }
-                    current = root = current.copyStyle();
+                    current = root = copyStyle(current);
                     whitespace = true;
                     text = false;
                     lines.add(root);
@@ -100,19 +269,19 @@ public class MinecraftMarkupConverter implements MarkupConverter<List<Component>
                 current = current.parent;
             }
 
-            ComponentNode newNode = new ComponentNode();
+            ComponentNode newNode = newNode();
             current.members.add(newNode);
             newNode.parent = current;
             newNode.translateUrls = current.translateUrls;
             current = newNode;
 
             if (qName.equals("hover")) {
-                current.events.add(new BaseEvent(BaseEvent.Type.HOVER, parseAction(attributes, true)));
+                current.events.add(event(BaseEvent.Type.HOVER, attributes, true));
             } else if (qName.equals("click")) {
                 if (attributes.getValue("shift") != null) {
-                    current.events.add(new BaseEvent(BaseEvent.Type.SHIFT_CLICK, parseAction(attributes, false)));
+                    current.events.add(event(BaseEvent.Type.SHIFT_CLICK, attributes, false));
                 } else {
-                    current.events.add(new BaseEvent(BaseEvent.Type.CLICK, parseAction(attributes, false)));
+                    current.events.add(event(BaseEvent.Type.CLICK, attributes, false));
                 }
             } else if (qName.equals("translateUrls")) {
                 current.translateUrls = true;
@@ -123,15 +292,33 @@ public class MinecraftMarkupConverter implements MarkupConverter<List<Component>
                 current.style = current.style.withColor(color);
             }
 
-            for (FlagKey key : FlagKey.values()) {
+            for (FlagKey key : FLAG_KEYS) {
                 if (attributes.getValue(key.getKey()) != null) {
                     current.style = current.style.withFlag(key, FlagValue.TRUE);
                 }
             }
         }
 
+        private Event event(BaseEvent.Type type, Attributes attributes, boolean component) {
+            if (interner == null) {
+                return new BaseEvent(type, parseAction(attributes, component));
+            }
+            EventKey key =
+                    new EventKey(type, attributes.getValue("action"), attributes.getValue("value"), keepLinefeeds);
+            Event event = (Event) interner.get(key);
+            if (event == null) {
+                event = new BaseEvent(type, parseAction(attributes, component));
+                interner.put(key, event);
+            }
+            return event;
+        }
+
         private BaseAction parseAction(Attributes attributes, boolean component) {
-            BaseAction.Type type = BaseAction.Type.valueOf(attributes.getValue("action").toUpperCase());
+            String typeName = attributes.getValue("action");
+            BaseAction.Type type = ACTION_TYPE_BY_NAME.get(typeName);
+            if (type == null) {
+                type = BaseAction.Type.valueOf(typeName.toUpperCase());
+            }
             String valueString = attributes.getValue("value");
             Component value = component ? convert(valueString).get(0) : new StringComponent(valueString);
             return new BaseAction(type, value);
@@ -156,7 +343,7 @@ public class MinecraftMarkupConverter implements MarkupConverter<List<Component>
 
         private void characters0(char[] ch, int start, int length, boolean exact) {
             if (!current.members.isEmpty()) {
-                ComponentNode newNode = new ComponentNode();
+                ComponentNode newNode = newNode();
                 current.members.add(newNode);
                 newNode.parent = current;
                 newNode.fromText = true;
@@ -184,6 +371,19 @@ public class MinecraftMarkupConverter implements MarkupConverter<List<Component>
             }
             text |= current.text.length() > 0;
         }
+
+        private ComponentNode copyStyle(ComponentNode source) {
+            ComponentNode p = source.parent == null ? null : copyStyle(source.parent);
+            if (source.fromText && source.events.isEmpty() && source.style.equals(Style.INHERIT)) {
+                return p;
+            }
+            ComponentNode node = newNode();
+            node.style = source.style;
+            node.events.addAll(source.events);
+            node.parent = p;
+            node.translateUrls = source.translateUrls;
+            return node;
+        }
     }
 
     @ToString(exclude = "members")
@@ -196,11 +396,31 @@ public class MinecraftMarkupConverter implements MarkupConverter<List<Component>
         boolean fromText;
         boolean translateUrls = false;
 
+        void reset() {
+            parent = null;
+            if (text.capacity() > MAX_POOLED_TEXT_CAPACITY) {
+                text = new StringBuilder();
+            } else {
+                text.setLength(0);
+            }
+            style = Style.INHERIT;
+            members.clear();
+            events.clear();
+            fromText = false;
+            translateUrls = false;
+        }
+
         private boolean empty() {
             return text.length() <= 0 && members.isEmpty() && events.isEmpty();
         }
 
-        Component build(boolean root) {
+        /**
+         * @param copyEvents Whether the component must get its own copy of the event set, because this node will be
+         *                   reused.
+         * @param interner   Interner for the built component and its style, or null.
+         * @param urlScanner Scanner for the links in the text of translateUrls nodes.
+         */
+        Component build(boolean root, boolean copyEvents, ComponentInterner interner, UrlScanner urlScanner) {
             if (!root) {
                 if (empty()) {
                     return null;
@@ -209,42 +429,44 @@ public class MinecraftMarkupConverter implements MarkupConverter<List<Component>
                     events.isEmpty() &&
                     style.equals(Style.INHERIT) &&
                     !translateUrls) {
-                    return new StringComponent(text.toString());
+                    StringComponent component = new StringComponent(text.toString());
+                    return interner == null ? component : interner.intern(component);
                 }
             }
-            Stream<Component> components = members.stream().map(m -> m.build(false));
+            List<Component> components = new ArrayList<>(members.size() + (translateUrls ? 1 : 0));
             ComponentValue value;
             if (translateUrls) {
                 value = ComponentValue.EMPTY;
-                components = Stream.concat(
-                        Stream.of(LegacyConverter.convertUrls(text)),
-                        components
-                );
+                urlScanner.appendComponents(text, components);
+                if (interner != null) {
+                    // children must be shared instances for the parent to be found in the interner
+                    components.replaceAll(interner::intern);
+                }
             } else {
                 value = new StringComponentValue(text.toString());
             }
-            BaseComponent component = new BaseComponent(
-                    value,
-                    components
-                            .filter(m -> m != null)
-                            .collect(Collectors.toList()),
-                    style,
-                    events
-            );
-            return ComponentMinimizer.minimizeOne(component);
-        }
-
-        ComponentNode copyStyle() {
-            ComponentNode p = parent == null ? null : parent.copyStyle();
-            if (fromText && events.isEmpty() && style.equals(Style.INHERIT)) {
-                return p;
+            for (ComponentNode member : members) {
+                Component component = member.build(false, copyEvents, interner, urlScanner);
+                if (component != null) {
+                    components.add(component);
+                }
             }
-            ComponentNode node = new ComponentNode();
-            node.style = this.style;
-            node.events.addAll(this.events);
-            node.parent = p;
-            node.translateUrls = this.translateUrls;
-            return node;
+            Set<Event> componentEvents = copyEvents ? new HashSet<>(events) : events;
+            if (interner != null) {
+                return interner.minimize(value, components, interner.intern(style), componentEvents);
+            }
+            return ComponentMinimizer.minimizeOne(new BaseComponent(value, components, style, componentEvents));
         }
     }
+
+    /**
+     * Interner key of an event: the event type and the raw attributes it was parsed from.
+     */
+    @Value
+    private static class EventKey {
+        BaseEvent.Type type;
+        String action;
+        String value;
+        boolean keepLinefeeds;
+    }
 }
@@ -0,0 +1,40 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package at.yawk.cricket.template;
+
+import java.util.List;
+import lombok.Value;
+
+/**
+ * Result of {@link TemplateManager#formatPage(String, MarkupConverter, int, int, Object...)}.
+ *
+ * @author yawkat
+ */
+@Value
+public class Page<T> {
+    /**
+     * The converted lines of the page.
+     */
+    List<T> lines;
+    /**
+     * Index of this page, starting at 0.
+     */
+    int page;
+    int pageSize;
+    /**
+     * The largest {@link PageSource#size() size} of the page sources in the template arguments.
+     */
+    int totalRows;
+
+    public int getPageCount() {
+        return pageCount(totalRows, pageSize);
+    }
+
+    static int pageCount(int totalRows, int pageSize) {
+        return (int) (((long) totalRows + pageSize - 1) / pageSize);
+    }
+}
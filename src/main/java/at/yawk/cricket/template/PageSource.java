@@ -0,0 +1,45 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package at.yawk.cricket.template;
+
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Rows of a template argument that can be read starting at any offset, like a database query with a limit. Templates
+ * see a page source as a list and can iterate it with {@code each}. When rendered with
+ * {@link TemplateManager#formatPage(String, MarkupConverter, int, int, Object...)}, only the rows of the requested
+ * page are read and bound.
+ *
+ * @author yawkat
+ */
+public interface PageSource<E> {
+    /**
+     * The total number of rows.
+     */
+    int size();
+
+    /**
+     * Iterate the rows starting at the given index. Rows are read as they are needed and the iterator may be abandoned
+     * before it is exhausted.
+     */
+    Iterator<E> iterator(int offset);
+
+    static <E> PageSource<E> of(List<E> rows) {
+        return new PageSource<E>() {
+            @Override
+            public int size() {
+                return rows.size();
+            }
+
+            @Override
+            public Iterator<E> iterator(int offset) {
+                return rows.listIterator(offset);
+            }
+        };
+    }
+}
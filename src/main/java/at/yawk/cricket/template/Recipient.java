@@ -0,0 +1,46 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package at.yawk.cricket.template;
+
+import java.time.ZoneId;
+import java.util.Locale;
+import lombok.Value;
+
+/**
+ * A single recipient of a {@link TemplateManager#formatBatch(String, MarkupConverter, java.util.List, Object...) batch
+ * render}.
+ *
+ * @author yawkat
+ */
+@Value
+public class Recipient {
+    /**
+     * Time zone to render with, or null to use the {@link TimeZoneHolder} zone of the calling thread.
+     */
+    ZoneId zone;
+    /**
+     * Locale to render with, or null to use the {@link LocaleHolder} locale of the calling thread.
+     */
+    Locale locale;
+    /**
+     * Arguments that are bound on top of the shared arguments of the batch. Properties of these arguments replace
+     * shared properties with the same name.
+     */
+    Object[] args;
+
+    public static Recipient of(Object... args) {
+        return new Recipient(null, null, args);
+    }
+
+    public static Recipient of(ZoneId zone, Object... args) {
+        return new Recipient(zone, null, args);
+    }
+
+    public static Recipient of(ZoneId zone, Locale locale, Object... args) {
+        return new Recipient(zone, locale, args);
+    }
+}
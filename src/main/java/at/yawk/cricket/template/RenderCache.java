@@ -0,0 +1,171 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package at.yawk.cricket.template;
+
+import java.time.ZoneId;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.ToLongFunction;
+import lombok.RequiredArgsConstructor;
+import lombok.Value;
+
+/**
+ * Bounded cache of rendered templates, keyed by template name, converter, bound template arguments and the current
+ * {@link TimeZoneHolder} zone and {@link LocaleHolder} locale. Can be passed to
+ * {@link TemplateManager#setRenderCache(RenderCache)}.
+ *
+ * Entries are evicted in least-recently-used order once the total weight of all entries exceeds the maximum weight.
+ * Cached results are shared between callers and must not be modified, list results are returned as unmodifiable lists.
+ * Templates that use helpers whose output does not only depend on their arguments should not be rendered with a cache.
+ *
+ * @author yawkat
+ */
+public class RenderCache {
+    private final long maximumWeight;
+    private final ToLongFunction<Object> weigher;
+
+    private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(16, 0.75F, true);
+    private long totalWeight = 0;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * Create a cache that holds at most the given number of entries.
+     */
+    public RenderCache(long maximumSize) {
+        this(maximumSize, result -> 1);
+    }
+
+    /**
+     * Create a cache with the given maximum weight. The weight of each entry is determined by applying the weigher to
+     * the rendered result.
+     */
+    public RenderCache(long maximumWeight, ToLongFunction<Object> weigher) {
+        this.maximumWeight = maximumWeight;
+        this.weigher = weigher;
+    }
+
+    Object get(Key key) {
+        Entry entry;
+        synchronized (entries) {
+            entry = entries.get(key);
+        }
+        if (entry == null) {
+            misses.incrementAndGet();
+            return null;
+        } else {
+            hits.incrementAndGet();
+            return entry.result;
+        }
+    }
+
+    /**
+     * Store the given result. Lists are stored as unmodifiable views so the shared result cannot be modified.
+     *
+     * @return The stored result, which should be returned to the caller instead of the given one.
+     */
+    Object put(Key key, Object result) {
+        if (result instanceof List) {
+            result = Collections.unmodifiableList((List<?>) result);
+        }
+        long weight = weigher.applyAsLong(result);
+        if (weight > maximumWeight) {
+            return result;
+        }
+        synchronized (entries) {
+            Entry previous = entries.put(key, new Entry(result, weight));
+            if (previous != null) {
+                totalWeight -= previous.weight;
+            }
+            totalWeight += weight;
+            Iterator<Entry> iterator = entries.values().iterator();
+            while (totalWeight > maximumWeight && iterator.hasNext()) {
+                totalWeight -= iterator.next().weight;
+                iterator.remove();
+                evictions.incrementAndGet();
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Remove all entries from this cache. Called automatically when templates are reloaded.
+     */
+    public void invalidateAll() {
+        synchronized (entries) {
+            entries.clear();
+            totalWeight = 0;
+        }
+    }
+
+    public Stats getStats() {
+        synchronized (entries) {
+            return new Stats(hits.get(), misses.get(), evictions.get(), entries.size(), totalWeight);
+        }
+    }
+
+    @Value
+    public static class Stats {
+        long hitCount;
+        long missCount;
+        long evictionCount;
+        long size;
+        long weight;
+
+        public double getHitRate() {
+            long total = hitCount + missCount;
+            return total == 0 ? 1 : (double) hitCount / total;
+        }
+    }
+
+    @RequiredArgsConstructor
+    private static class Entry {
+        final Object result;
+        final long weight;
+    }
+
+    /**
+     * Converters are compared by identity, the bound arguments by value.
+     */
+    @RequiredArgsConstructor
+    static class Key {
+        private final String templateName;
+        private final MarkupConverter<?> converter;
+        private final Map<?, ?> arguments;
+        private final ZoneId zone;
+        private final Locale locale;
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) { return true; }
+            if (!(o instanceof Key)) { return false; }
+            Key other = (Key) o;
+            return converter == other.converter &&
+                   templateName.equals(other.templateName) &&
+                   zone.equals(other.zone) &&
+                   locale.equals(other.locale) &&
+                   arguments.equals(other.arguments);
+        }
+
+        @Override
+        public int hashCode() {
+            int result = templateName.hashCode();
+            result = 31 * result + System.identityHashCode(converter);
+            result = 31 * result + zone.hashCode();
+            result = 31 * result + locale.hashCode();
+            result = 31 * result + arguments.hashCode();
+            return result;
+        }
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package at.yawk.cricket.template;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import lombok.SneakyThrows;
+
+/**
+ * Executor presets for {@link TemplateManager#setRenderExecutor(Executor)}.
+ *
+ * @author yawkat
+ */
+public final class RenderExecutors {
+    /**
+     * {@code Executors.newVirtualThreadPerTaskExecutor()}, or null if the runtime does not have virtual threads. Looked
+     * up reflectively so this library still builds and runs on Java 8.
+     */
+    private static final MethodHandle NEW_VIRTUAL_THREAD_EXECUTOR;
+
+    static {
+        MethodHandle handle;
+        try {
+            handle = MethodHandles.publicLookup().findStatic(
+                    Executors.class, "newVirtualThreadPerTaskExecutor", MethodType.methodType(ExecutorService.class));
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            handle = null;
+        }
+        NEW_VIRTUAL_THREAD_EXECUTOR = handle;
+    }
+
+    private RenderExecutors() {}
+
+    /**
+     * Whether the current runtime supports virtual threads (Java 21 or newer).
+     */
+    public static boolean isVirtualThreadSupported() {
+        return NEW_VIRTUAL_THREAD_EXECUTOR != null;
+    }
+
+    /**
+     * Create an executor that starts a new virtual thread for each render. The executor should be shut down when it is
+     * no longer used.
+     *
+     * @throws UnsupportedOperationException if the runtime does not support virtual threads.
+     */
+    @SneakyThrows
+    public static ExecutorService newVirtualThreadExecutor() {
+        if (NEW_VIRTUAL_THREAD_EXECUTOR == null) {
+            throw new UnsupportedOperationException("Virtual threads require Java 21 or newer");
+        }
+        return (ExecutorService) NEW_VIRTUAL_THREAD_EXECUTOR.invoke();
+    }
+
+    /**
+     * Return a shared {@link #newVirtualThreadExecutor() virtual thread executor} if the runtime supports it, or the
+     * {@link ForkJoinPool#commonPool() common pool} otherwise. The executor is created once and must not be shut down.
+     */
+    public static Executor virtualThreadsOrCommonPool() {
+        return SharedExecutor.INSTANCE;
+    }
+
+    /**
+     * Holder of the executor of {@link #virtualThreadsOrCommonPool()}, so it is only created when first used.
+     */
+    private static final class SharedExecutor {
+        static final Executor INSTANCE =
+                isVirtualThreadSupported() ? newVirtualThreadExecutor() : ForkJoinPool.commonPool();
+    }
+}
@@ -0,0 +1,40 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package at.yawk.cricket.template;
+
+/**
+ * Receives measurements of template renders. Can be passed to
+ * {@link TemplateManager#setRenderListener(RenderListener)}; {@link RenderMetrics} is an in-memory implementation.
+ *
+ * Methods are called on the rendering thread after each render, so implementations must be thread-safe and cheap.
+ *
+ * @author yawkat
+ */
+public interface RenderListener {
+    /**
+     * Called after a template was rendered successfully.
+     *
+     * @param cached       Whether the result was taken from the {@link RenderCache}. Apply and convert times are 0
+     *                     then.
+     * @param bindNanos    Time spent binding the template arguments.
+     * @param applyNanos   Time spent in handlebars.
+     * @param convertNanos Time spent parsing and converting the markup.
+     * @param outputLength Length of the rendered markup in chars, or -1 if no markup text was produced, e.g. when
+     *                     rendering from a compiled markup skeleton or from the cache.
+     */
+    void rendered(String templateName,
+                  boolean cached,
+                  long bindNanos,
+                  long applyNanos,
+                  long convertNanos,
+                  int outputLength);
+
+    /**
+     * Called when rendering a template failed. The exception is rethrown to the caller afterwards.
+     */
+    void failed(String templateName, RuntimeException exception);
+}
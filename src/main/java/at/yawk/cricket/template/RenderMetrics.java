@@ -0,0 +1,112 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package at.yawk.cricket.template;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import lombok.Getter;
+
+/**
+ * {@link RenderListener} that keeps per-template counters and {@link Histogram histograms} in memory so they can be
+ * exported to a monitoring system.
+ *
+ * @author yawkat
+ */
+public class RenderMetrics implements RenderListener {
+    private final Map<String, TemplateMetrics> templates = new ConcurrentHashMap<>();
+
+    /**
+     * Metrics by template name. The returned map is a live view.
+     */
+    public Map<String, TemplateMetrics> getTemplates() {
+        return Collections.unmodifiableMap(templates);
+    }
+
+    /**
+     * Get the metrics of the given template, or null if it was never rendered.
+     */
+    public TemplateMetrics getTemplate(String templateName) {
+        return templates.get(templateName);
+    }
+
+    private TemplateMetrics metrics(String templateName) {
+        TemplateMetrics metrics = templates.get(templateName);
+        if (metrics == null) {
+            metrics = templates.computeIfAbsent(templateName, n -> new TemplateMetrics());
+        }
+        return metrics;
+    }
+
+    @Override
+    public void rendered(String templateName,
+                         boolean cached,
+                         long bindNanos,
+                         long applyNanos,
+                         long convertNanos,
+                         int outputLength) {
+        TemplateMetrics metrics = metrics(templateName);
+        metrics.renders.increment();
+        metrics.bindNanos.record(bindNanos);
+        metrics.totalNanos.record(bindNanos + applyNanos + convertNanos);
+        if (cached) {
+            metrics.cacheHits.increment();
+        } else {
+            metrics.applyNanos.record(applyNanos);
+            metrics.convertNanos.record(convertNanos);
+        }
+        if (outputLength != -1) {
+            metrics.outputLength.record(outputLength);
+        }
+    }
+
+    @Override
+    public void failed(String templateName, RuntimeException exception) {
+        metrics(templateName).errors.increment();
+    }
+
+    /**
+     * Remove all recorded metrics.
+     */
+    public void reset() {
+        templates.clear();
+    }
+
+    public static class TemplateMetrics {
+        private final LongAdder renders = new LongAdder();
+        private final LongAdder cacheHits = new LongAdder();
+        private final LongAdder errors = new LongAdder();
+
+        @Getter private final Histogram bindNanos = new Histogram();
+        /**
+         * Only contains renders that did not come from the cache.
+         */
+        @Getter private final Histogram applyNanos = new Histogram();
+        /**
+         * Only contains renders that did not come from the cache.
+         */
+        @Getter private final Histogram convertNanos = new Histogram();
+        @Getter private final Histogram totalNanos = new Histogram();
+        /**
+         * Only contains renders that produced markup text.
+         */
+        @Getter private final Histogram outputLength = new Histogram();
+
+        public long getRenderCount() {
+            return renders.sum();
+        }
+
+        public long getCacheHitCount() {
+            return cacheHits.sum();
+        }
+
+        public long getErrorCount() {
+            return errors.sum();
+        }
+    }
+}
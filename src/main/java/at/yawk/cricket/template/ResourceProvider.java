@@ -8,22 +8,44 @@ package at.yawk.cricket.template;
 
 import com.google.common.base.Joiner;
 import java.io.IOException;
-import java.io.Reader;
 import java.io.StringReader;
 import java.io.UncheckedIOException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
-import java.nio.ByteBuffer;
-import java.nio.channels.SeekableByteChannel;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.Objects;
 import java.util.Properties;
-import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.function.UnaryOperator;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import lombok.Setter;
+import lombok.Value;
 import lombok.SneakyThrows;
 import lombok.extern.slf4j.Slf4j;
 
@@ -33,16 +55,98 @@ import lombok.extern.slf4j.Slf4j;
 @Slf4j
 class ResourceProvider {
     static final String DEFAULT_TEMPLATE_RESOURCE_DIR = "/";
+    /**
+     * Name of the manifest of stored defaults in the config directory.
+     */
+    private static final String MANIFEST_NAME = ".defaults.sha256";
+    /**
+     * Locale suffix of a resource bundle file name: {@code _language}, optionally followed by {@code _COUNTRY} and
+     * {@code _variant}. See {@link #isLocaleSuffix(String)}.
+     */
+    private static final Pattern LOCALE_SUFFIX = Pattern.compile("_([a-z]{2})(?:_([A-Z]{2})(?:_[A-Za-z0-9]+)?)?");
+    private static final Set<String> ISO_LANGUAGES = new HashSet<>(Arrays.asList(Locale.getISOLanguages()));
+    private static final Set<String> ISO_COUNTRIES = new HashSet<>(Arrays.asList(Locale.getISOCountries()));
 
-    private final Path source;
+    /**
+     * The bundled files: a {@link TemplateBundle} if one exists in the resource directory, the resource directory
+     * itself otherwise.
+     */
+    private final DefaultResources defaults;
     private final Path config;
 
-    private final Map<String, String> stringCache = new HashMap<>();
-    private final ReadWriteLock cacheLock = new ReentrantReadWriteLock();
-    private boolean cacheLoaded = false;
+    /**
+     * Immutable snapshot of all strings. Reloads build a new map and replace this reference, so lookups never block and
+     * always see a complete snapshot.
+     */
+    private volatile Map<String, String> stringCache = Collections.emptyMap();
+    /**
+     * Serializes loading. Only held by writers.
+     */
+    private final Object loadLock = new Object();
+    private volatile boolean cacheLoaded = false;
+
+    /**
+     * Serializes {@link #storeDefaults()}, which may run in the background in lazy mode.
+     */
+    private final Object defaultsLock = new Object();
+    private volatile boolean defaultsStored = false;
+    /**
+     * Set when the background task of lazy mode that stores the defaults was started, so it only runs once.
+     */
+    private final AtomicBoolean defaultsScheduled = new AtomicBoolean(false);
+
+    /**
+     * If this is true, strings are loaded one key at a time when they are first requested instead of walking the
+     * whole resource tree, and defaults are stored to the config directory in the background.
+     */
+    @Getter @Setter private volatile boolean lazy = false;
+
+    /**
+     * Applied to every loaded string, so identical strings can share one instance.
+     */
+    private volatile UnaryOperator<String> stringInterner = UnaryOperator.identity();
+
+    /**
+     * Keys defined by each resource file, by relative path. Modified only while holding {@link #loadLock}.
+     */
+    private final Map<String, Set<String>> keysByFile = new ConcurrentHashMap<>();
+
+    /**
+     * Candidate files that {@link #loadKey(String)} found missing, so they are not probed again. Cleared on every
+     * (re-)load because files may have been added since.
+     */
+    private final Set<String> missingFiles = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Called with the changed keys after the string cache was (re-)loaded.
+     */
+    private final List<Consumer<Set<String>>> reloadListeners = new CopyOnWriteArrayList<>();
+
+    /**
+     * Watcher of the config directory, or null. Guarded by {@link #loadLock}.
+     */
+    private ConfigWatcher watcher = null;
 
     @SneakyThrows(URISyntaxException.class)
     ResourceProvider(Path templateConfigDir, String templateResourceDirectory, Class<?> contextClass) {
+        config = templateConfigDir;
+
+        String bundleName = templateResourceDirectory + (templateResourceDirectory.endsWith("/") ? "" : "/") +
+                            TemplateBundle.FILE_NAME;
+        URL bundle = ResourceProvider.class.getResource(bundleName);
+        if (bundle == null) {
+            bundle = contextClass.getResource(bundleName);
+        }
+        if (bundle != null) {
+            try {
+                defaults = TemplateBundle.load(bundle);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            warnIfStale(bundle);
+            return;
+        }
+
         URL url = ResourceProvider.class.getResource(templateResourceDirectory);
 
         Path sourceLocal = null;
@@ -68,9 +172,42 @@ class ResourceProvider {
                 }
             }
         }
-        this.source = sourceLocal;
+        defaults = new DirectoryResources(sourceLocal);
+    }
 
-        config = templateConfigDir;
+    /**
+     * Warn if template files next to a bundle on the file system were modified after the bundle was written. The
+     * bundle is used instead of those files, so this usually means the bundle was not rebuilt after editing them.
+     */
+    private static void warnIfStale(URL bundle) {
+        if (!bundle.getProtocol().equals("file")) {
+            // inside a jar, files and bundle come from the same build
+            return;
+        }
+        try {
+            Path bundlePath = Paths.get(bundle.toURI());
+            FileTime written = Files.getLastModifiedTime(bundlePath);
+            List<Path> newer;
+            try (Stream<Path> files = Files.walk(bundlePath.getParent())) {
+                newer = files.filter(path -> {
+                    String name = path.getFileName().toString().toLowerCase();
+                    if (!name.endsWith(".hbs") && !name.endsWith(".html") && !name.endsWith(".properties")) {
+                        return false;
+                    }
+                    try {
+                        return Files.getLastModifiedTime(path).compareTo(written) > 0;
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }).collect(Collectors.toList());
+            }
+            if (!newer.isEmpty()) {
+                log.warn("Template bundle {} is older than {} template files next to it (for example {}), " +
+                         "rebuild it to use their changes", bundlePath, newer.size(), newer.get(0));
+            }
+        } catch (IOException | UncheckedIOException | URISyntaxException e) {
+            log.debug("Could not check whether template bundle {} is up to date", bundle, e);
+        }
     }
 
     private static Path getZipPath(String zipPath, String filePath) {
@@ -92,159 +229,553 @@ class ResourceProvider {
 
     public void loadCacheAndStoreDefaults() {
         if (cacheLoaded) { return; }
-        cacheLock.writeLock().lock();
-        try {
+        if (lazy) {
+            if (!defaultsStored && defaultsScheduled.compareAndSet(false, true)) {
+                CompletableFuture.runAsync(this::storeDefaultsOnce).exceptionally(t -> {
+                    log.error("Failed to store default templates", t);
+                    return null;
+                });
+            }
+            return;
+        }
+        loadAll();
+    }
+
+    /**
+     * Store the defaults if that has not happened yet and load all strings, regardless of {@link #isLazy() lazy mode}.
+     */
+    public void loadAll() {
+        if (cacheLoaded) { return; }
+        synchronized (loadLock) {
             if (cacheLoaded) { return; }
 
-            storeDefaults();
-            loadCache();
+            storeDefaultsOnce();
+            try {
+                loadCache();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
             cacheLoaded = true;
-        } catch (IOException e) {
-            throw new UncheckedIOException(e);
-        } finally {
-            cacheLock.writeLock().unlock();
         }
     }
 
-    public void storeDefaults() throws IOException {
-        Files.walk(source).forEach(child -> {
+    private void storeDefaultsOnce() {
+        if (defaultsStored) { return; }
+        synchronized (defaultsLock) {
+            if (defaultsStored) { return; }
+
+            long start = System.nanoTime();
+            StoreDefaultsResult result;
             try {
-                Path inConfig = config.resolve(relativize(source, child, config.getFileSystem()));
-                if (Files.isDirectory(child)) {
-                    Files.createDirectories(inConfig);
-                    return;
-                }
-                if (child.toString().endsWith(".class")) {
-                    return;
-                }
-                Path orig = inConfig.resolveSibling(inConfig.getFileName().toString() + ".orig");
-                if (Files.exists(inConfig)) {
-                    boolean unmodified = contentsEqual(child, inConfig);
-                    if (!unmodified && Files.exists(orig)) {
-                        unmodified = contentsEqual(orig, inConfig);
-                    }
-                    if (unmodified) {
-                        Files.delete(inConfig);
-                    }
-                }
-                Files.copy(child, orig, StandardCopyOption.REPLACE_EXISTING);
+                result = storeDefaults();
             } catch (IOException e) {
                 throw new UncheckedIOException(e);
             }
-        });
+            defaultsStored = true;
+            log.info("Stored default templates in {} ms ({} up to date, {} copied, {} unmodified copies deleted)",
+                     TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start),
+                     result.getSkipped(), result.getCopied(), result.getDeleted());
+        }
     }
 
-    private static boolean contentsEqual(Path a, Path b) throws IOException {
-        if (Files.size(a) != Files.size(b)) {
-            return false;
+    /**
+     * Copy the bundled resources to the config directory as {@code .orig} files and delete config copies that were not
+     * modified by the user, so that updated defaults take effect.
+     *
+     * A manifest of content hashes of the bundled files is kept in the config directory, so {@code .orig} files are
+     * only rewritten when the bundled file actually changed.
+     */
+    public StoreDefaultsResult storeDefaults() throws IOException {
+        Path manifestPath = config.resolve(MANIFEST_NAME);
+        Map<String, ManifestEntry> manifest = readManifest(manifestPath);
+        Map<String, ManifestEntry> newManifest = new HashMap<>();
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new AssertionError(e);
         }
-        try (SeekableByteChannel ca = Files.newByteChannel(a); SeekableByteChannel cb = Files.newByteChannel(b)) {
-            ByteBuffer bufa = ByteBuffer.allocateDirect(1024);
-            ByteBuffer bufb = ByteBuffer.allocateDirect(1024);
-            while (ca.size() > ca.position()) {
-                while (bufa.position() < bufa.capacity()) {
-                    ca.read(bufa);
+
+        int skipped = 0;
+        int copied = 0;
+        int deleted = 0;
+        Files.createDirectories(config);
+        for (String key : defaults.getFiles()) {
+            Path inConfig = config.resolve(key);
+            Files.createDirectories(inConfig.getParent());
+            // bundles know the hash, so unchanged files do not have to be read at all
+            byte[] data = null;
+            String hash = defaults.getHash(key);
+            if (hash == null) {
+                data = defaults.read(key);
+                hash = toHex(digest.digest(data));
+            }
+            ManifestEntry entry = new ManifestEntry(hash, defaults.getSize(key));
+            ManifestEntry previous = manifest.get(key);
+            newManifest.put(key, entry);
+
+            Path orig = inConfig.resolveSibling(inConfig.getFileName().toString() + ".orig");
+            if (Files.exists(inConfig)) {
+                if (data == null) {
+                    data = defaults.read(key);
                 }
-                while (bufb.position() < bufb.capacity()) {
-                    ca.read(bufb);
+                boolean unmodified = contentsEqual(data, inConfig);
+                if (!unmodified) {
+                    if (previous != null) {
+                        // copy of the previous default
+                        unmodified = Files.size(inConfig) == previous.size &&
+                                     previous.hash.equals(toHex(digest.digest(Files.readAllBytes(inConfig))));
+                    } else if (Files.exists(orig)) {
+                        unmodified = contentsEqual(Files.readAllBytes(orig), inConfig);
+                    }
                 }
-                bufa.position(0);
-                bufb.position(0);
-                if (!bufa.equals(bufb)) {
-                    return false;
+                if (unmodified) {
+                    Files.delete(inConfig);
+                    deleted++;
                 }
             }
+            if (entry.equals(previous) && Files.exists(orig)) {
+                skipped++;
+            } else {
+                if (data == null) {
+                    data = defaults.read(key);
+                }
+                Files.write(orig, data);
+                copied++;
+            }
         }
-        return true;
+
+        if (!newManifest.equals(manifest)) {
+            writeManifest(manifestPath, newManifest);
+        }
+        return new StoreDefaultsResult(skipped, copied, deleted);
     }
 
-    private static Path relativize(Path parent, Path child, FileSystem targetFs) {
-        if (parent.equals(child)) {
-            return targetFs.getPath("");
+    private static Map<String, ManifestEntry> readManifest(Path path) throws IOException {
+        Map<String, ManifestEntry> manifest = new HashMap<>();
+        if (!Files.exists(path)) {
+            return manifest;
+        }
+        for (String line : Files.readAllLines(path, StandardCharsets.UTF_8)) {
+            String[] parts = line.split(" ", 3);
+            if (parts.length == 3) {
+                try {
+                    manifest.put(parts[2], new ManifestEntry(parts[0], Long.parseLong(parts[1])));
+                } catch (NumberFormatException e) {
+                    log.warn("Invalid line in {}: {}", path, line);
+                }
+            }
         }
+        return manifest;
+    }
 
-        String parentString = parent.toString();
-        String childString = child.toString();
-        if (parentString.endsWith("/") && !parentString.equals("/")) {
-            parentString = parentString.substring(0, parentString.length() - 1);
+    private static void writeManifest(Path path, Map<String, ManifestEntry> manifest) throws IOException {
+        List<String> lines = manifest.entrySet().stream()
+                .sorted(Map.Entry.comparingByKey())
+                .map(e -> e.getValue().hash + " " + e.getValue().size + " " + e.getKey())
+                .collect(Collectors.toList());
+        Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+        Files.write(tmp, lines, StandardCharsets.UTF_8);
+        try {
+            // readers never see a partially written manifest
+            Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING);
         }
-        if (childString.endsWith("/")) {
-            childString = childString.substring(0, childString.length() - 1);
+    }
+
+    static String toHex(byte[] bytes) {
+        char[] chars = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            chars[i * 2] = Character.forDigit((bytes[i] >> 4) & 0xf, 16);
+            chars[i * 2 + 1] = Character.forDigit(bytes[i] & 0xf, 16);
         }
+        return new String(chars);
+    }
 
-        parent = parent.getFileSystem().getPath(parentString);
-        child = child.getFileSystem().getPath(childString);
+    private static boolean contentsEqual(byte[] expected, Path file) throws IOException {
+        return Files.size(file) == expected.length && Arrays.equals(expected, Files.readAllBytes(file));
+    }
+
+    @Value
+    private static class ManifestEntry {
+        String hash;
+        long size;
+    }
 
-        if (parent.isAbsolute()) { child = child.toAbsolutePath(); }
-        if (child.isAbsolute()) { parent = parent.toAbsolutePath(); }
+    /**
+     * Number of bundled files that were up to date, copied to the config directory and whose unmodified config copies
+     * were deleted by {@link #storeDefaults()}.
+     */
+    @Value
+    static class StoreDefaultsResult {
+        int skipped;
+        int copied;
+        int deleted;
+    }
 
-        Path relative = parent.relativize(child);
+    public void loadCache() throws IOException {
+        Set<String> changed;
+        synchronized (loadLock) {
+            long start = System.nanoTime();
+            List<String> files = new ArrayList<>(defaults.getFiles());
+            // files are independent of each other, read them in parallel. They are merged in walk order, so a key
+            // defined by more than one file always gets the same value.
+            List<Map<String, String>> loaded = files.parallelStream().map(file -> {
+                Map<String, String> strings = new HashMap<>();
+                try {
+                    loadFile(file, strings);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                return strings;
+            }).collect(Collectors.toList());
+            Map<String, String> stringCache = new HashMap<>();
+            keysByFile.clear();
+            missingFiles.clear();
+            for (int i = 0; i < files.size(); i++) {
+                Map<String, String> strings = loaded.get(i);
+                stringCache.putAll(strings);
+                keysByFile.put(files.get(i), strings.keySet());
+            }
+            changed = new HashSet<>(this.stringCache.keySet());
+            changed.addAll(stringCache.keySet());
+            this.stringCache = Collections.unmodifiableMap(stringCache);
+            log.info("Loaded {} template strings from {} files in {} ms",
+                     stringCache.size(), files.size(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        }
+        fireReload(changed);
+    }
 
-        String root = relative.getName(0).toString();
-        String[] components = new String[relative.getNameCount() - 1];
-        for (int i = 0; i < components.length; i++) {
-            components[i] = relative.getName(i + 1).toString();
+    /**
+     * Load only the files that can define the given key: the template file with the key's name and the properties files
+     * in the key's directory. Files that were loaded or found missing before are not probed again.
+     */
+    private void loadKey(String key) throws IOException {
+        int slash = key.lastIndexOf('/');
+        String directory = key.substring(0, slash + 1);
+        String name = key.substring(slash + 1);
+        List<String> candidates = new ArrayList<>();
+        candidates.add(directory + name + ".hbs");
+        candidates.add(directory + name + ".html");
+        for (String file : defaults.getFiles(directory)) {
+            if (file.toLowerCase().endsWith(".properties")) {
+                candidates.add(file);
+            }
+        }
+        candidates.removeIf(file -> keysByFile.containsKey(file) || missingFiles.contains(file));
+        if (candidates.isEmpty()) {
+            return;
         }
-        return targetFs.getPath(root, components);
+
+        long start = System.nanoTime();
+        updateFiles(candidates);
+        log.debug("Loaded template {} in {} ms", key, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
     }
 
-    public void loadCache() throws IOException {
-        cacheLock.writeLock().lock();
+    /**
+     * Re-read only the given files (relative to the config directory) and publish a new snapshot.
+     */
+    void reloadFiles(Collection<Path> relativePaths) throws IOException {
+        missingFiles.clear();
+        Set<String> changed = updateFiles(relativePaths.stream()
+                                                  .map(p -> Joiner.on('/').join(p))
+                                                  .collect(Collectors.toList()));
+        if (!changed.isEmpty()) {
+            log.info("Reloaded templates {}", changed);
+            fireReload(changed);
+        }
+    }
+
+    /**
+     * @return the keys whose values changed
+     */
+    private Set<String> updateFiles(Collection<String> files) throws IOException {
+        Set<String> changed = new HashSet<>();
+        synchronized (loadLock) {
+            Map<String, String> previous = this.stringCache;
+            Map<String, String> stringCache = new HashMap<>(previous);
+            for (String fileKey : files) {
+                Set<String> keys = new HashSet<>();
+                Set<String> oldKeys = keysByFile.remove(fileKey);
+                if (oldKeys != null) {
+                    stringCache.keySet().removeAll(oldKeys);
+                    keys.addAll(oldKeys);
+                }
+                if (defaults.isFile(fileKey)) {
+                    Set<String> newKeys = loadFile(fileKey, stringCache);
+                    keysByFile.put(fileKey, newKeys);
+                    keys.addAll(newKeys);
+                } else {
+                    missingFiles.add(fileKey);
+                }
+                for (String key : keys) {
+                    if (!Objects.equals(previous.get(key), stringCache.get(key))) {
+                        changed.add(key);
+                    }
+                }
+            }
+            this.stringCache = Collections.unmodifiableMap(stringCache);
+        }
+        return changed;
+    }
+
+    /**
+     * Load the strings of a single resource file into the given map.
+     *
+     * Template files define the key of their name, so {@code help_de.hbs} is the German variant of {@code help}.
+     * Properties files that are the locale variant of another properties file in the same directory, like
+     * {@code messages_de.properties} next to {@code messages.properties}, append their locale suffix to each of their
+     * keys instead, so their keys follow the same scheme.
+     *
+     * @param file the path of the file relative to the resource directory
+     * @return the keys defined by the file
+     */
+    private Set<String> loadFile(String file, Map<String, String> into) throws IOException {
+        Path configured = config.resolve(file);
+        String prefix = file.substring(0, file.lastIndexOf('/') + 1);
+        String fileName = file.substring(prefix.length());
+        String extension = fileName.substring(fileName.lastIndexOf('.') + 1);
+        if (extension.equalsIgnoreCase("properties")) {
+            Properties properties = new Properties();
+            // also load from jar in case we added new properties
+            properties.load(new StringReader(new String(defaults.read(file), StandardCharsets.UTF_8)));
+            byte[] data = readConfigured(configured);
+            if (data != null) {
+                properties.load(new StringReader(new String(data, StandardCharsets.UTF_8)));
+            }
+            String suffix = localeSuffix(prefix, fileName.substring(0, fileName.lastIndexOf('.')));
+            Set<String> keys = new HashSet<>();
+            properties.forEach((k, v) -> {
+                into.put(prefix + k + suffix, stringInterner.apply(String.valueOf(v)));
+                keys.add(prefix + k + suffix);
+            });
+            return keys;
+        } else if (extension.equalsIgnoreCase("html") ||
+                   extension.equalsIgnoreCase("hbs")) {
+            byte[] data = readConfigured(configured);
+            if (data == null) {
+                data = defaults.read(file);
+            }
+            String name = prefix + fileName.substring(0, fileName.lastIndexOf('.'));
+            into.put(name, stringInterner.apply(new String(data, StandardCharsets.UTF_8).trim()));
+            return Collections.singleton(name);
+        } else {
+            return Collections.emptySet();
+        }
+    }
+
+    /**
+     * Get the locale suffix of a properties file name, or an empty string if the file is not the locale variant of
+     * another properties file.
+     *
+     * @param directory the directory of the file, empty or ending with {@code /}
+     * @param baseName  the file name without extension
+     */
+    private String localeSuffix(String directory, String baseName) {
+        for (int i = baseName.indexOf('_', 1); i != -1; i = baseName.indexOf('_', i + 1)) {
+            String suffix = baseName.substring(i);
+            if (isLocaleSuffix(suffix) &&
+                defaults.isFile(directory + baseName.substring(0, i) + ".properties")) {
+                return suffix;
+            }
+        }
+        return "";
+    }
+
+    /**
+     * Whether the given file name suffix names a locale: the language must be an ISO 639 code and the country, if any,
+     * an ISO 3166 code, so suffixes like {@code _top} or {@code _new} are not taken for locales.
+     */
+    static boolean isLocaleSuffix(String suffix) {
+        Matcher matcher = LOCALE_SUFFIX.matcher(suffix);
+        return matcher.matches() &&
+               ISO_LANGUAGES.contains(matcher.group(1)) &&
+               (matcher.group(2) == null || ISO_COUNTRIES.contains(matcher.group(2)));
+    }
+
+    /**
+     * Read the given file from the config directory, or return null if it does not exist.
+     */
+    private static byte[] readConfigured(Path configured) throws IOException {
+        if (!Files.exists(configured)) {
+            return null;
+        }
         try {
-            stringCache.clear();
-            Files.walk(source)
-                    .filter(Files::isRegularFile)
-                    .forEach(child -> {
-                        Path relative = relativize(source, child, config.getFileSystem());
-                        Path configured = config.resolve(relative);
-                        String fileName = relative.getFileName().toString();
-                        String extension = fileName.substring(fileName.lastIndexOf('.') + 1);
-                        boolean useConfigured = Files.exists(configured);
-                        byte[] data;
-                        try {
-                            data = Files.readAllBytes(useConfigured ? configured : child);
-                        } catch (IOException e) {
-                            throw new UncheckedIOException(e);
-                        }
-                        String prefix = relative.getParent() == null ?
-                                "" :
-                                Joiner.on('/').join(relative.getParent()) + "/";
-                        if (extension.equalsIgnoreCase("properties")) {
-                            Properties properties = new Properties();
-                            try {
-                                if (useConfigured) {
-                                    // also load from jar in case we added new properties
-                                    try (Reader reader = Files.newBufferedReader(child)) {
-                                        properties.load(reader);
-                                    }
-                                }
-                                properties.load(new StringReader(new String(data, StandardCharsets.UTF_8)));
-                            } catch (IOException e) {
-                                throw new UncheckedIOException(e);
-                            }
-                            properties.forEach((k, v) -> stringCache.put(prefix + k, String.valueOf(v)));
-                        } else if (extension.equalsIgnoreCase("html") ||
-                                   extension.equalsIgnoreCase("hbs")) {
-                            String name = prefix + fileName.substring(0, fileName.lastIndexOf('.'));
-                            stringCache.put(name, new String(data, StandardCharsets.UTF_8).trim());
+            return Files.readAllBytes(configured);
+        } catch (NoSuchFileException e) {
+            // unmodified copy that was just deleted by storeDefaults
+            return null;
+        }
+    }
+
+    /**
+     * Add a listener that is called with the changed keys after the string cache was (re-)loaded.
+     */
+    public void addReloadListener(Consumer<Set<String>> listener) {
+        reloadListeners.add(listener);
+    }
+
+    private void fireReload(Set<String> changedKeys) {
+        Set<String> keys = Collections.unmodifiableSet(changedKeys);
+        for (Consumer<Set<String>> listener : reloadListeners) {
+            try {
+                listener.accept(keys);
+            } catch (RuntimeException e) {
+                log.error("Reload listener failed", e);
+            }
+        }
+    }
+
+    /**
+     * Start watching the config directory for changes. Changed files are re-read individually and published as a new
+     * snapshot. Does nothing if the config directory is already watched.
+     */
+    public void startWatching() throws IOException {
+        loadCacheAndStoreDefaults();
+        synchronized (loadLock) {
+            if (watcher != null) {
+                return;
+            }
+            watcher = new ConfigWatcher(config.getFileSystem().newWatchService());
+            watcher.registerAll(config);
+            Thread thread = new Thread(watcher, "Template watcher " + config);
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    /**
+     * Stop watching the config directory.
+     */
+    public void stopWatching() throws IOException {
+        ConfigWatcher watcher;
+        synchronized (loadLock) {
+            watcher = this.watcher;
+            this.watcher = null;
+        }
+        if (watcher != null) {
+            watcher.watchService.close();
+        }
+    }
+
+    @RequiredArgsConstructor
+    private class ConfigWatcher implements Runnable {
+        /**
+         * Time to wait for further events after a change, so that an editor saving multiple files (or writing a file in
+         * multiple steps) only causes one reload.
+         */
+        private static final long SETTLE_MILLIS = 100;
+
+        final WatchService watchService;
+        private final Map<WatchKey, Path> directories = new HashMap<>();
+
+        void registerAll(Path root) throws IOException {
+            Files.walk(root).filter(Files::isDirectory).forEach(dir -> {
+                try {
+                    directories.put(dir.register(watchService,
+                                                 StandardWatchEventKinds.ENTRY_CREATE,
+                                                 StandardWatchEventKinds.ENTRY_MODIFY,
+                                                 StandardWatchEventKinds.ENTRY_DELETE), dir);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (true) {
+                    Set<Path> changed = new HashSet<>();
+                    WatchKey key = watchService.take();
+                    // a failed reload (a malformed file, a file deleted while reading it) must not end hot reload
+                    try {
+                        do {
+                            collect(key, changed);
+                            key = watchService.poll(SETTLE_MILLIS, TimeUnit.MILLISECONDS);
+                        } while (key != null);
+                        if (!changed.isEmpty()) {
+                            reloadFiles(changed);
                         }
-                    });
-        } finally {
-            cacheLock.writeLock().unlock();
+                    } catch (ClosedWatchServiceException e) {
+                        throw e;
+                    } catch (IOException | RuntimeException e) {
+                        log.error("Failed to reload templates, still watching for changes", e);
+                    }
+                }
+            } catch (InterruptedException | ClosedWatchServiceException ignored) {
+            }
         }
+
+        private void collect(WatchKey key, Set<Path> changed) throws IOException {
+            Path dir = directories.get(key);
+            try {
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (dir == null || event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                        // we lost track, reload everything
+                        loadCache();
+                        continue;
+                    }
+                    Path path = dir.resolve((Path) event.context());
+                    if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(path)) {
+                        registerAll(path);
+                        continue;
+                    }
+                    String fileName = path.getFileName().toString().toLowerCase();
+                    if (fileName.endsWith(".hbs") || fileName.endsWith(".html") || fileName.endsWith(".properties")) {
+                        changed.add(config.relativize(path));
+                    }
+                }
+            } finally {
+                // keep watching the directory even if handling its events failed
+                if (!key.reset()) {
+                    directories.remove(key);
+                }
+            }
+        }
+    }
+
+    /**
+     * Set the interner for loaded strings. Must be called before loading.
+     */
+    void setStringInterner(UnaryOperator<String> stringInterner) {
+        this.stringInterner = stringInterner;
+    }
+
+    /**
+     * All currently loaded keys.
+     */
+    public Set<String> getKeys() {
+        return stringCache.keySet();
     }
 
     public String getString(String key) {
-        cacheLock.readLock().lock();
-        try {
-            String v = stringCache.get(key);
-            if (v == null) {
-                throw new NoSuchElementException(
-                        "Missing template " + key + " (available: " + stringCache.keySet() + ")");
+        String v = findString(key);
+        if (v == null) {
+            throw new NoSuchElementException(
+                    "Missing template " + key + " (available: " + stringCache.keySet() + ")");
+        }
+        return v;
+    }
+
+    /**
+     * Whether the given key exists. In lazy mode, this loads the files that can define the key.
+     */
+    public boolean hasString(String key) {
+        return findString(key) != null;
+    }
+
+    private String findString(String key) {
+        String v = stringCache.get(key);
+        if (v == null && lazy && !cacheLoaded) {
+            try {
+                loadKey(key);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
             }
-            return v;
-        } finally {
-            cacheLock.readLock().unlock();
+            v = stringCache.get(key);
         }
+        return v;
     }
 }
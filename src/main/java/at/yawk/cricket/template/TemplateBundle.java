@@ -0,0 +1,226 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package at.yawk.cricket.template;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import lombok.RequiredArgsConstructor;
+
+/**
+ * All default template resources packed into a single indexed file, so that startup does not have to open the jar as a
+ * zip file system, walk it and read every file separately. A bundle named {@value #FILE_NAME} in the template resource
+ * directory is used instead of the loose files in that directory. Files in the config directory still override the
+ * bundled ones.
+ *
+ * Bundles are created at build time with {@link #write(Path, Path)}, or by running this class with the resource
+ * directory and the output file as arguments.
+ *
+ * The format is a big-endian header with the magic {@code CTB1} and the number of files, followed by one index entry
+ * per file (UTF-8 path length and bytes, data offset, data length and SHA-256 hash), followed by the file data.
+ *
+ * @author yawkat
+ */
+public class TemplateBundle implements DefaultResources {
+    public static final String FILE_NAME = "templates.bundle";
+
+    private static final int MAGIC = 0x43544231;
+    private static final int HASH_LENGTH = 32;
+
+    /**
+     * The data section of the bundle. Only accessed through duplicates, so concurrent reads do not interfere.
+     */
+    private final ByteBuffer data;
+    private final Map<String, Entry> entries;
+
+    private TemplateBundle(ByteBuffer data, Map<String, Entry> entries) {
+        this.data = data;
+        this.entries = entries;
+    }
+
+    /**
+     * Load a bundle. Bundles on the default file system are memory-mapped, others (for example inside a jar) are read
+     * into memory in one go.
+     */
+    static TemplateBundle load(URL url) throws IOException {
+        if (url.getProtocol().equals("file")) {
+            Path path;
+            try {
+                path = Paths.get(url.toURI());
+            } catch (URISyntaxException e) {
+                throw new IOException(e);
+            }
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                return load(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+            }
+        }
+        try (InputStream in = url.openStream()) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                out.write(buffer, 0, n);
+            }
+            return load(ByteBuffer.wrap(out.toByteArray()));
+        }
+    }
+
+    static TemplateBundle load(ByteBuffer buffer) throws IOException {
+        try {
+            if (buffer.getInt() != MAGIC) {
+                throw new IOException("Not a template bundle");
+            }
+            int count = buffer.getInt();
+            Map<String, Entry> entries = new LinkedHashMap<>();
+            for (int i = 0; i < count; i++) {
+                byte[] name = new byte[buffer.getInt()];
+                buffer.get(name);
+                int offset = buffer.getInt();
+                int length = buffer.getInt();
+                byte[] hash = new byte[HASH_LENGTH];
+                buffer.get(hash);
+                entries.put(new String(name, StandardCharsets.UTF_8),
+                            new Entry(offset, length, ResourceProvider.toHex(hash)));
+            }
+            ByteBuffer data = buffer.slice();
+            for (Entry entry : entries.values()) {
+                if (entry.offset < 0 || entry.length < 0 || (long) entry.offset + entry.length > data.capacity()) {
+                    throw new IOException("Truncated template bundle");
+                }
+            }
+            return new TemplateBundle(data, Collections.unmodifiableMap(entries));
+        } catch (BufferUnderflowException | NegativeArraySizeException e) {
+            throw new IOException("Truncated template bundle", e);
+        }
+    }
+
+    /**
+     * Pack all files of the given resource directory into a bundle.
+     */
+    public static void write(Path resourceDirectory, Path out) throws IOException {
+        DirectoryResources resources = new DirectoryResources(resourceDirectory);
+        List<String> files = new ArrayList<>(resources.getFiles());
+        files.remove(FILE_NAME);
+        Collections.sort(files);
+
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new AssertionError(e);
+        }
+        ByteArrayOutputStream index = new ByteArrayOutputStream();
+        DataOutputStream indexOut = new DataOutputStream(index);
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        indexOut.writeInt(MAGIC);
+        indexOut.writeInt(files.size());
+        for (String file : files) {
+            byte[] content = resources.read(file);
+            byte[] name = file.getBytes(StandardCharsets.UTF_8);
+            indexOut.writeInt(name.length);
+            indexOut.write(name);
+            indexOut.writeInt(data.size());
+            indexOut.writeInt(content.length);
+            indexOut.write(digest.digest(content));
+            data.write(content);
+        }
+
+        Path tmp = out.resolveSibling(out.getFileName() + ".tmp");
+        try (OutputStream stream = Files.newOutputStream(tmp)) {
+            index.writeTo(stream);
+            data.writeTo(stream);
+        }
+        Files.move(tmp, out, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("Usage: TemplateBundle <resource directory> <output file>");
+            System.exit(1);
+        }
+        write(Paths.get(args[0]), Paths.get(args[1]));
+    }
+
+    @Override
+    public Collection<String> getFiles() {
+        return entries.keySet();
+    }
+
+    @Override
+    public Collection<String> getFiles(String directory) {
+        List<String> files = new ArrayList<>();
+        for (String file : entries.keySet()) {
+            if (file.startsWith(directory) && file.indexOf('/', directory.length()) == -1) {
+                files.add(file);
+            }
+        }
+        return files;
+    }
+
+    @Override
+    public boolean isFile(String file) {
+        return entries.containsKey(file);
+    }
+
+    @Override
+    public byte[] read(String file) throws IOException {
+        Entry entry = getEntry(file);
+        ByteBuffer view = data.duplicate();
+        view.position(entry.offset);
+        byte[] content = new byte[entry.length];
+        view.get(content);
+        return content;
+    }
+
+    @Override
+    public long getSize(String file) throws IOException {
+        return getEntry(file).length;
+    }
+
+    @Override
+    public String getHash(String file) {
+        Entry entry = entries.get(file);
+        return entry == null ? null : entry.hash;
+    }
+
+    private Entry getEntry(String file) throws IOException {
+        Entry entry = entries.get(file);
+        if (entry == null) {
+            throw new NoSuchFileException(file);
+        }
+        return entry;
+    }
+
+    @RequiredArgsConstructor
+    private static class Entry {
+        final int offset;
+        final int length;
+        final String hash;
+    }
+}
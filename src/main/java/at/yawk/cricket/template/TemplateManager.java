@@ -10,6 +10,7 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.SerializationFeature;
 import com.fasterxml.jackson.databind.util.TokenBuffer;
 import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import com.github.jknack.handlebars.Context;
 import com.github.jknack.handlebars.Handlebars;
 import com.github.jknack.handlebars.Helper;
 import com.github.jknack.handlebars.Template;
@@ -19,24 +20,161 @@ import com.github.jknack.handlebars.io.StringTemplateSource;
 import com.github.jknack.handlebars.io.TemplateSource;
 import java.io.IOException;
 import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
+import java.time.ZoneId;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import lombok.Setter;
+import lombok.Value;
 import lombok.extern.slf4j.Slf4j;
+import org.xml.sax.SAXException;
 
 /**
+ * Templates may have variants for different locales. A variant is a template whose name has the locale appended, like
+ * {@code help_de_AT} or {@code help_de} for {@code help}; see {@link ResourceProvider} for the corresponding properties
+ * file layout. Renders use the {@link LocaleHolder} locale and pick the most specific variant that exists, falling back
+ * from {@code de_AT} to {@code de}, then to the {@link #getFallbackLocale() fallback locale} and finally to the
+ * unlocalized template. Partials are resolved the same way.
+ *
  * @author yawkat
  */
 @Slf4j
-public class TemplateManager {
+public class TemplateManager implements AutoCloseable {
     private final Handlebars handlebars;
 
-    private final Map<String, Template> resources = new ConcurrentHashMap<>();
+    private static final Pattern PARTIAL = Pattern.compile("\\{\\{>\\s*([^\\s}]+)");
+
+    private final ResourceProvider resourceProvider;
+
+    private final Map<String, CompiledTemplate> resources = new ConcurrentHashMap<>();
+    /**
+     * Names of the templates that include a partial, by partial name.
+     */
+    private final Map<String, Set<String>> includedBy = new ConcurrentHashMap<>();
+    /**
+     * Names of the partials each compiled template includes, so edges of {@link #includedBy} can be removed when a
+     * template no longer includes a partial.
+     */
+    private final Map<String, Set<String>> includes = new ConcurrentHashMap<>();
+    /**
+     * The source {@link #includes} of each template was last read from. Partials are loaded again on every render, so
+     * their source is only scanned when it changed.
+     */
+    private final Map<String, String> scannedSources = new ConcurrentHashMap<>();
+
+    /**
+     * Compiled templates by requested name and locale, so a localized lookup is a single hash probe. The compiled
+     * templates themselves are shared with {@link #resources}.
+     *
+     * This and {@link #resolvedNames} are replaced instead of cleared when templates change, so a lookup that resolved
+     * against the old templates can only store its result in the discarded map.
+     */
+    private volatile Map<LocalizedName, CompiledTemplate> localizedResources = new ConcurrentHashMap<>();
+    /**
+     * Resolved variant names by requested name and locale, for partials.
+     */
+    private volatile Map<LocalizedName, String> resolvedNames = new ConcurrentHashMap<>();
+
+    /**
+     * Locale whose variants are used when the requested locale has none, before falling back to the unlocalized
+     * template, or null to fall back to the unlocalized template directly (the default).
+     */
+    @Getter private volatile Locale fallbackLocale = null;
 
     @Getter private final ObjectMapper objectMapper;
+    private final ContextBinder contextBinder;
+
+    /**
+     * If this is true (the default), template arguments are bound to the handlebars context directly using a cached
+     * per-class accessor model. Otherwise, each argument is serialized and parsed back to a map through the
+     * {@link #getObjectMapper() object mapper}. Both modes produce the same template input.
+     */
+    @Getter @Setter private boolean directBinding = true;
+
+    /**
+     * If this is true, templates that only use simple variables are rendered from a markup skeleton parsed at load
+     * time instead of producing and re-parsing an XML string. Only converters that provide a
+     * {@link MarkupConverter#createHandler() handler} can make use of this. Skeletons are only built while this is
+     * enabled, so changing it recompiles the templates.
+     */
+    @Getter private volatile boolean compiledMarkup = false;
+
+    /**
+     * If this is true, templates are rendered by a program compiled from the handlebars syntax tree at load time (see
+     * {@link TemplateProgram}) instead of the handlebars interpreter. Literal text, variable lookups, inline helper
+     * calls and {@code each}/{@code if}/{@code unless} sections are handled by the program, everything else is still
+     * interpreted. Both produce the same output. Programs are only compiled while this is enabled, so changing it
+     * recompiles the templates.
+     */
+    @Getter private volatile boolean compiledTemplates = false;
+
+    /**
+     * Cache for rendered templates, or null to disable caching (the default). Renders with lazily bound arguments
+     * (iterators, streams or {@link PageSource page sources}) are not cached, since those compare by identity.
+     */
+    @Getter @Setter private RenderCache renderCache = null;
+
+    /**
+     * Listener that receives timing and size measurements for every render, or null to disable measuring (the
+     * default). See {@link RenderMetrics} for an in-memory implementation.
+     */
+    @Getter @Setter private volatile RenderListener renderListener = null;
+
+    /**
+     * Executor used by the {@code formatAsync} methods. Defaults to the {@link ForkJoinPool#commonPool() common pool};
+     * see {@link RenderExecutors} for a virtual thread preset.
+     */
+    @Getter @Setter private volatile Executor renderExecutor = ForkJoinPool.commonPool();
+
+    /**
+     * Registry that shares template sources and parsed templates with other managers, or null (the default).
+     */
+    @Getter private volatile TemplateRegistry templateRegistry = null;
+    /**
+     * The registry entry held for each compiled template, by template name. Only used with a registry.
+     */
+    private final Map<String, TemplateRegistry.Entry> registryEntries = new ConcurrentHashMap<>();
+    /**
+     * Set by {@link #close()}, so the registry entries and the manager count are only released once.
+     */
+    private final AtomicBoolean closed = new AtomicBoolean();
+
+    /**
+     * Number of distinct outputs of a batch that are rendered per executor task.
+     */
+    private static final int BATCH_CHUNK_SIZE = 32;
 
     public TemplateManager(Path templateConfigDir) {
         this(templateConfigDir, ResourceProvider.DEFAULT_TEMPLATE_RESOURCE_DIR);
@@ -50,17 +188,21 @@ public class TemplateManager {
         objectMapper = new ObjectMapper();
         objectMapper.disable(SerializationFeature.FAIL_ON_EMPTY_BEANS);
         objectMapper.registerModule(new JavaTimeModule());
+        contextBinder = new ContextBinder(objectMapper);
 
-        ResourceProvider resourceProvider = new ResourceProvider(templateConfigDir,
-                                                                 templateResourceDirectory,
-                                                                 contextClass);
+        resourceProvider = new ResourceProvider(templateConfigDir, templateResourceDirectory, contextClass);
+        resourceProvider.addReloadListener(this::onReload);
         handlebars = new Handlebars(new AbstractTemplateLoader() {
             @Override
             public TemplateSource sourceAt(String location) throws IOException {
                 resourceProvider.loadCacheAndStoreDefaults();
+                Locale locale = LocaleHolder.getLocale();
+                String name = LocaleHolder.isLocalized(locale) ? resolveName(location, locale) : location;
                 try {
-                    String string = resourceProvider.getString(location);
-                    return new StringTemplateSource(location, string);
+                    String string = resourceProvider.getString(name);
+                    // also records the edges of partials that are only resolved while rendering
+                    scanIncludes(name, string);
+                    return new StringTemplateSource(name, string);
                 } catch (NoSuchElementException e) {
                     // rethrow as IO so handlebars can decide what to do
                     throw new IOException(e);
@@ -74,48 +216,1050 @@ public class TemplateManager {
 
     public void registerHelper(String name, Helper<?> helper) {
         handlebars.registerHelper(name, helper);
+        // which templates can be compiled to a skeleton depends on the available helpers
+        resources.clear();
+        resetLocalization();
+        RenderCache cache = renderCache;
+        if (cache != null) {
+            cache.invalidateAll();
+        }
+    }
+
+    public void setCompiledMarkup(boolean compiledMarkup) {
+        if (this.compiledMarkup != compiledMarkup) {
+            this.compiledMarkup = compiledMarkup;
+            resources.clear();
+            resetLocalization();
+        }
+    }
+
+    public void setCompiledTemplates(boolean compiledTemplates) {
+        if (this.compiledTemplates != compiledTemplates) {
+            this.compiledTemplates = compiledTemplates;
+            resources.clear();
+            resetLocalization();
+        }
+    }
+
+    public void setFallbackLocale(Locale fallbackLocale) {
+        this.fallbackLocale = fallbackLocale;
+        resetLocalization();
+        RenderCache cache = renderCache;
+        if (cache != null) {
+            cache.invalidateAll();
+        }
+    }
+
+    private void resetLocalization() {
+        localizedResources = new ConcurrentHashMap<>();
+        resolvedNames = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Share template sources and parsed templates with the other managers that use the given registry, so managers
+     * over the same template packs only parse each template once. Helpers and overrides stay specific to this
+     * manager. Must be set before the first render.
+     */
+    public void setTemplateRegistry(TemplateRegistry templateRegistry) {
+        if (this.templateRegistry != null) {
+            throw new IllegalStateException("Template registry already set");
+        }
+        templateRegistry.addManager();
+        resourceProvider.setStringInterner(templateRegistry::intern);
+        this.templateRegistry = templateRegistry;
+    }
+
+    /**
+     * Stop hot reload and give up the templates this manager holds in its {@link #getTemplateRegistry() registry}.
+     * The manager must not be used afterwards. Closing a manager again has no effect.
+     */
+    @Override
+    public void close() {
+        if (!closed.compareAndSet(false, true)) {
+            return;
+        }
+        stopHotReload();
+        TemplateRegistry registry = templateRegistry;
+        if (registry != null) {
+            for (String name : new ArrayList<>(registryEntries.keySet())) {
+                TemplateRegistry.Entry entry = registryEntries.remove(name);
+                if (entry != null) {
+                    registry.release(entry);
+                }
+            }
+            registry.removeManager();
+        }
+    }
+
+    /**
+     * If this is true, template sources are loaded one at a time when they are first used instead of reading the whole
+     * resource tree on the first render, and default templates are copied to the config directory in the background.
+     * Must be set before the first render.
+     */
+    public void setLazyLoading(boolean lazyLoading) {
+        resourceProvider.setLazy(lazyLoading);
+    }
+
+    public boolean isLazyLoading() {
+        return resourceProvider.isLazy();
+    }
+
+    /**
+     * Load all template sources and compile all templates in the background, in parallel. Call this right after
+     * construction so that the first render does not have to wait for loading. Templates that fail to compile are
+     * logged and will report their error on first use.
+     *
+     * @return A future that completes once all templates are compiled.
+     */
+    public CompletableFuture<Void> warmUp() {
+        return CompletableFuture.runAsync(() -> {
+            long start = System.nanoTime();
+            resourceProvider.loadAll();
+            long loaded = System.nanoTime();
+            LongAdder compiled = new LongAdder();
+            resourceProvider.getKeys().parallelStream().forEach(name -> {
+                try {
+                    getTemplate(name);
+                    compiled.increment();
+                } catch (RuntimeException e) {
+                    log.warn("Failed to compile template {}", name, e);
+                }
+            });
+            log.info("Warm-up loaded template sources in {} ms and compiled {} templates in {} ms",
+                     TimeUnit.NANOSECONDS.toMillis(loaded - start),
+                     compiled.sum(),
+                     TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - loaded));
+        });
+    }
+
+    /**
+     * Watch the template config directory and pick up changes without a restart. Changed files are re-read
+     * individually, and only the templates that were changed or include a changed partial are recompiled and replaced.
+     * Renders are not blocked while this happens.
+     */
+    public void startHotReload() {
+        try {
+            resourceProvider.startWatching();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Stop watching the template config directory.
+     */
+    public void stopHotReload() {
+        try {
+            resourceProvider.stopWatching();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void onReload(Set<String> changedKeys) {
+        RenderCache cache = renderCache;
+        if (cache != null) {
+            cache.invalidateAll();
+        }
+
+        Set<String> affected = new HashSet<>();
+        Deque<String> queue = new ArrayDeque<>(changedKeys);
+        while (!queue.isEmpty()) {
+            String name = queue.poll();
+            if (affected.add(name)) {
+                queue.addAll(includedBy.getOrDefault(name, Collections.emptySet()));
+            }
+        }
+        for (String name : affected) {
+            CompiledTemplate old = resources.get(name);
+            if (old == null) {
+                continue;
+            }
+            CompiledTemplate recompiled;
+            try {
+                recompiled = createTemplate(name);
+            } catch (RuntimeException e) {
+                // the next render will report the error
+                log.warn("Failed to recompile template {}", name, e);
+                resources.remove(name, old);
+                continue;
+            }
+            resources.replace(name, old, recompiled);
+        }
+        // variants may have been added or removed
+        resetLocalization();
     }
 
     /**
      * @param from template location
      */
-    private Template createTemplate(String from) {
+    private CompiledTemplate createTemplate(String from) {
+        // the name is already resolved, partials are resolved when they are applied
+        Locale previousLocale = LocaleHolder.setLocale(Locale.ROOT);
+        TemplateRegistry registry = templateRegistry;
+        Handlebars previousHandlebars = registry == null ? null : TemplateRegistry.enter(handlebars);
         try {
-            return handlebars.compile(from);
+            TemplateSource templateSource = handlebars.getLoader().sourceAt(from);
+            Template template;
+            if (registry == null) {
+                template = handlebars.compile(templateSource);
+            } else {
+                TemplateRegistry.Entry entry = registry.acquire(templateSource);
+                TemplateRegistry.Entry previous = registryEntries.put(from, entry);
+                if (previous != null) {
+                    registry.release(previous);
+                }
+                template = entry.template;
+            }
+            String source = templateSource.content();
+            MarkupSkeleton skeleton = compiledMarkup ? MarkupSkeleton.compile(handlebars, source) : null;
+            TemplateProgram program = compiledTemplates ? TemplateProgram.compile(handlebars, template) : null;
+            return new CompiledTemplate(template, program, skeleton);
         } catch (IOException e) {
             throw new UncheckedIOException(e);
+        } finally {
+            if (registry != null) {
+                TemplateRegistry.exit(previousHandlebars);
+            }
+            LocaleHolder.setLocale(previousLocale);
+        }
+    }
+
+    private static Set<String> findPartials(String source) {
+        Set<String> partials = new HashSet<>();
+        Matcher matcher = PARTIAL.matcher(source);
+        while (matcher.find()) {
+            partials.add(matcher.group(1));
         }
+        return partials;
+    }
+
+    private void scanIncludes(String name, String source) {
+        if (scannedSources.put(name, source) != source) {
+            updateIncludes(name, findPartials(source));
+        }
+    }
+
+    private void updateIncludes(String name, Set<String> partials) {
+        Set<String> previous = includes.put(name, partials);
+        if (previous != null) {
+            for (String partial : previous) {
+                if (!partials.contains(partial)) {
+                    includedBy.getOrDefault(partial, Collections.emptySet()).remove(name);
+                }
+            }
+        }
+        for (String partial : partials) {
+            includedBy.computeIfAbsent(partial, k -> ConcurrentHashMap.newKeySet()).add(name);
+        }
+    }
+
+    /**
+     * The partials included by each loaded template and partial, by template name. Complete after
+     * {@link #validateAll()} or {@link #warmUp()}.
+     */
+    public Map<String, Set<String>> getDependencyGraph() {
+        Map<String, Set<String>> graph = new HashMap<>();
+        includes.forEach((name, partials) -> graph.put(name, Collections.unmodifiableSet(partials)));
+        return Collections.unmodifiableMap(graph);
+    }
+
+    /**
+     * Load and compile every template and check it without rendering: handlebars syntax, included partials, and
+     * markup elements, colors and event actions. Values that come from template arguments cannot be checked. Templates
+     * that fail to compile are left out of the template cache, so their next render reports the error again.
+     *
+     * @return All problems found, ordered by template name. Empty if all templates are valid.
+     */
+    public List<TemplateProblem> validateAll() {
+        resourceProvider.loadAll();
+        List<TemplateProblem> problems = Collections.synchronizedList(new ArrayList<>());
+        resourceProvider.getKeys().parallelStream().forEach(name -> {
+            String source;
+            try {
+                source = resourceProvider.getString(name);
+            } catch (NoSuchElementException e) {
+                // removed by a concurrent reload
+                return;
+            }
+            try {
+                getTemplate(name);
+            } catch (RuntimeException e) {
+                problems.add(new TemplateProblem(name, TemplateProblem.Kind.COMPILE_ERROR, String.valueOf(
+                        e instanceof UncheckedIOException ? e.getCause().getMessage() : e.getMessage())));
+            }
+            for (String partial : findPartials(source)) {
+                if (!resourceProvider.hasString(partial)) {
+                    problems.add(new TemplateProblem(name, TemplateProblem.Kind.MISSING_PARTIAL,
+                                                     "Missing partial " + partial));
+                }
+            }
+            MarkupValidator.validate(name, source, problems);
+        });
+        List<TemplateProblem> sorted = new ArrayList<>(problems);
+        sorted.sort(Comparator.comparing(TemplateProblem::getTemplateName));
+        return sorted;
     }
 
     /**
      * @param from template location
      */
-    private Template getTemplate(String from) {
+    CompiledTemplate getTemplate(String from) {
         return resources.computeIfAbsent(from, this::createTemplate);
     }
 
+    /**
+     * Get the most specific variant of the given template for the given locale.
+     *
+     * @param from template location
+     */
+    CompiledTemplate getTemplate(String from, Locale locale) {
+        if (!LocaleHolder.isLocalized(locale)) {
+            return getTemplate(from);
+        }
+        Map<LocalizedName, CompiledTemplate> localizedResources = this.localizedResources;
+        LocalizedName key = new LocalizedName(from, locale);
+        CompiledTemplate template = localizedResources.get(key);
+        if (template == null) {
+            template = getTemplate(resolveName(from, locale));
+            localizedResources.putIfAbsent(key, template);
+        }
+        return template;
+    }
+
+    /**
+     * Get the name of the most specific variant of the given template for the given locale, or the name itself if
+     * there is no variant.
+     */
+    String resolveName(String name, Locale locale) {
+        Map<LocalizedName, String> resolvedNames = this.resolvedNames;
+        LocalizedName key = new LocalizedName(name, locale);
+        String resolved = resolvedNames.get(key);
+        if (resolved == null) {
+            resourceProvider.loadCacheAndStoreDefaults();
+            resolved = name;
+            for (String candidate : getCandidateNames(name, locale, fallbackLocale)) {
+                if (resourceProvider.hasString(candidate)) {
+                    resolved = candidate;
+                    break;
+                }
+            }
+            resolvedNames.putIfAbsent(key, resolved);
+        }
+        return resolved;
+    }
+
+    /**
+     * The names of the variants of the given template that are tried for the given locale, most specific first,
+     * followed by those of the fallback locale. The unlocalized name is not included.
+     */
+    static List<String> getCandidateNames(String name, Locale locale, Locale fallbackLocale) {
+        List<String> candidates = new ArrayList<>(6);
+        addCandidateNames(candidates, name, locale);
+        if (fallbackLocale != null) {
+            addCandidateNames(candidates, name, fallbackLocale);
+        }
+        return candidates;
+    }
+
+    private static void addCandidateNames(List<String> candidates, String name, Locale locale) {
+        if (!LocaleHolder.isLocalized(locale)) {
+            return;
+        }
+        String language = name + '_' + locale.getLanguage();
+        String country = locale.getCountry().isEmpty() ? null : language + '_' + locale.getCountry();
+        String variant = country == null || locale.getVariant().isEmpty() ? null : country + '_' + locale.getVariant();
+        for (String candidate : new String[]{ variant, country, language }) {
+            if (candidate != null && !candidates.contains(candidate)) {
+                candidates.add(candidate);
+            }
+        }
+    }
+
     public <T> T format(String templateName, MarkupConverter<T> converter, Object... args) {
-        Template template = getTemplate(templateName);
+        RenderListener listener = renderListener;
+        RenderTimer timer = listener == null ? null : new RenderTimer();
+        return formatBound(templateName, converter, bindArgs(templateName, listener, timer, args), listener, timer);
+    }
+
+    /**
+     * Bind the arguments of a render, reporting failures to the listener.
+     */
+    private Map<Object, Object> bindArgs(String templateName,
+                                         RenderListener listener,
+                                         RenderTimer timer,
+                                         Object[] args) {
+        try {
+            Map<Object, Object> mappedArgs;
+            try {
+                mappedArgs = bind(args);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            if (timer != null) { timer.bound(); }
+            return mappedArgs;
+        } catch (RuntimeException e) {
+            if (listener != null) { listener.failed(templateName, e); }
+            throw e;
+        }
+    }
+
+    /**
+     * Render a template with arguments from {@link #bindArgs(String, RenderListener, RenderTimer, Object[])}.
+     */
+    @SuppressWarnings("unchecked")
+    private <T> T formatBound(String templateName,
+                              MarkupConverter<T> converter,
+                              Map<Object, Object> mappedArgs,
+                              RenderListener listener,
+                              RenderTimer timer) {
+        try {
+            Locale locale = LocaleHolder.getLocale();
+            CompiledTemplate template = getTemplate(templateName, locale);
+
+            T result;
+            RenderCache cache = renderCache;
+            if (cache == null || ContextBinder.hasLazyValues(mappedArgs)) {
+                result = render(template, converter, Context.newContext(mappedArgs), timer);
+            } else {
+                RenderCache.Key key =
+                        new RenderCache.Key(templateName, converter, mappedArgs, TimeZoneHolder.getZone(), locale);
+                result = (T) cache.get(key);
+                if (result == null) {
+                    result = render(template, converter, Context.newContext(mappedArgs), timer);
+                    result = (T) cache.put(key, result);
+                } else if (timer != null) {
+                    timer.cached = true;
+                }
+            }
+            if (timer != null) { timer.report(listener, templateName); }
+            return result;
+        } catch (RuntimeException e) {
+            if (listener != null) { listener.failed(templateName, e); }
+            throw e;
+        }
+    }
+
+    /**
+     * Render one page of the rows of the {@link PageSource} properties of the arguments. Only the rows of the requested
+     * page are read from each of these page sources and bound, so the cost of a render does not grow with the total
+     * number of rows. Page sources nested deeper in the arguments are bound completely. In addition to the arguments,
+     * the template can use {@code @page} (starting at 1), {@code @pageCount}, {@code @pageOffset} (the index of the
+     * first row of the page) and {@code @totalRows}. Requires {@link #isDirectBinding() direct binding}. The render
+     * cache is not used.
+     *
+     * @param page     Index of the page, starting at 0.
+     * @param pageSize Number of rows per page.
+     */
+    public <T> Page<T> formatPage(String templateName,
+                                  MarkupConverter<List<T>> converter,
+                                  int page,
+                                  int pageSize,
+                                  Object... args) {
+        if (page < 0 || pageSize < 1) {
+            throw new IllegalArgumentException("Invalid page " + page + " of size " + pageSize);
+        }
+        if (!directBinding) {
+            throw new IllegalStateException("Paged rendering requires direct binding");
+        }
+        RenderListener listener = renderListener;
+        RenderTimer timer = listener == null ? null : new RenderTimer();
+        try {
+            CompiledTemplate template = getTemplate(templateName, LocaleHolder.getLocale());
+            int offset = (int) Math.min((long) page * pageSize, Integer.MAX_VALUE);
+            ContextBinder.PageWindow window = new ContextBinder.PageWindow(offset, pageSize);
+            Map<Object, Object> mappedArgs;
+            try {
+                mappedArgs = contextBinder.bindMap(window, args);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            if (timer != null) { timer.bound(); }
+
+            Context context = Context.newBuilder(mappedArgs)
+                    .combine("@page", page + 1)
+                    .combine("@pageCount", Page.pageCount(window.totalRows, pageSize))
+                    .combine("@pageOffset", offset)
+                    .combine("@totalRows", window.totalRows)
+                    .build();
+            List<T> lines = render(template, converter, context, timer);
+            if (timer != null) { timer.report(listener, templateName); }
+            return new Page<>(lines, page, pageSize, window.totalRows);
+        } catch (RuntimeException e) {
+            if (listener != null) { listener.failed(templateName, e); }
+            throw e;
+        }
+    }
+
+    private <T> T render(CompiledTemplate template,
+                         MarkupConverter<T> converter,
+                         Context context,
+                         RenderTimer timer) {
         String xml;
         try {
-            Map<Object, Object> mappedArgs = new HashMap<>();
-            if (args != null) {
-                for (Object arg : args) {
-                    try (TokenBuffer buffer = new TokenBuffer(getObjectMapper(), false)) {
-                        objectMapper.writeValue(buffer, arg);
-                        mappedArgs.putAll(objectMapper.readValue(buffer.asParser(), Map.class));
-                    }
+            MarkupHandler<T> handler = converter.createHandler();
+            if (handler != null) {
+                return render(template, handler, converter::createHandler, context, timer);
+            }
+            xml = apply(template, context);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        if (timer != null) { timer.applied(xml.length()); }
+        T result = converter.convert(xml);
+        if (timer != null) { timer.converted(); }
+        return result;
+    }
+
+    private String apply(CompiledTemplate template, Context context) throws IOException {
+        TemplateRegistry registry = templateRegistry;
+        Handlebars previousHandlebars = registry == null ? null : TemplateRegistry.enter(handlebars);
+        try {
+            TemplateProgram program = compiledTemplates ? template.getProgram() : null;
+            return program == null ? template.getTemplate().apply(context) : program.apply(context);
+        } finally {
+            if (registry != null) {
+                TemplateRegistry.exit(previousHandlebars);
+            }
+        }
+    }
+
+    private void apply(CompiledTemplate template, Context context, Writer writer) throws IOException {
+        TemplateRegistry registry = templateRegistry;
+        Handlebars previousHandlebars = registry == null ? null : TemplateRegistry.enter(handlebars);
+        try {
+            TemplateProgram program = compiledTemplates ? template.getProgram() : null;
+            if (program == null) {
+                template.getTemplate().apply(context, writer);
+            } else {
+                program.apply(context, writer);
+            }
+        } finally {
+            if (registry != null) {
+                TemplateRegistry.exit(previousHandlebars);
+            }
+        }
+    }
+
+    /**
+     * Render a template to the given handler.
+     *
+     * @param handlerFactory Creates the handler for the markup. If null, the given handler is used, and the markup is
+     *                       checked before parsing so the handler only receives events once.
+     * @param timer          Timer to record the apply and convert phases in, or null.
+     */
+    private <T> T render(CompiledTemplate template,
+                         MarkupHandler<T> handler,
+                         Supplier<MarkupHandler<T>> handlerFactory,
+                         Context context,
+                         RenderTimer timer) throws IOException {
+        T result;
+        if (compiledMarkup && template.getSkeleton() != null) {
+            MarkupSkeleton skeleton = template.getSkeleton();
+            String[] values = skeleton.evaluate(context);
+            if (timer != null) { timer.applied(-1); }
+            result = skeleton.replay(values, handler);
+        } else {
+            MarkupBuffer buffer = MarkupBuffer.acquire();
+            try {
+                apply(template, context, buffer);
+                if (timer != null) { timer.applied(buffer.getLength()); }
+                if (handlerFactory == null) {
+                    result = MarkupLexer.parseChecked(buffer.getChars(), buffer.getLength(), handler).getResult();
+                } else {
+                    result = MarkupLexer.parse(buffer.getChars(), buffer.getLength(), handler, handlerFactory)
+                            .getResult();
                 }
+            } catch (SAXException e) {
+                throw new IOException(e);
+            } finally {
+                buffer.release();
             }
-            xml = template.apply(mappedArgs);
+        }
+        if (timer != null) { timer.converted(); }
+        return result;
+    }
+
+    /**
+     * Render a template for many recipients at once. The shared arguments are bound once, and each recipient only binds
+     * its own {@link Recipient#getArgs() overrides}. Recipients with equal overrides and zone are rendered only once
+     * and share the same result instance, so results must not be modified. If {@link #isCompiledMarkup() compiled
+     * markup} is enabled and the template has a skeleton, the expressions that do not depend on any overridden argument
+     * are evaluated once for the whole batch. Recipients with different locales are rendered as separate batches,
+     * since each locale may use a different template variant. The render cache is not used.
+     *
+     * @return The results, in the same order as the recipients.
+     */
+    public <T> List<T> formatBatch(String templateName,
+                                   MarkupConverter<T> converter,
+                                   List<Recipient> recipients,
+                                   Object... sharedArgs) {
+        return formatBatch(templateName, converter, recipients, null, sharedArgs);
+    }
+
+    /**
+     * Like {@link #formatBatch(String, MarkupConverter, List, Object...)}, but large batches are split into chunks
+     * that are rendered on the given executor. This method still blocks until all chunks are done.
+     *
+     * @param executor The executor to use, or null to render on the calling thread.
+     */
+    public <T> List<T> formatBatch(String templateName,
+                                   MarkupConverter<T> converter,
+                                   List<Recipient> recipients,
+                                   Executor executor,
+                                   Object... sharedArgs) {
+        return formatBoundBatch(templateName, converter, bindBatch(recipients, sharedArgs), executor);
+    }
+
+    /**
+     * Bind the shared arguments and the overrides of each recipient, and resolve recipients without their own zone or
+     * locale to those of the calling thread.
+     */
+    private BoundBatch bindBatch(List<Recipient> recipients, Object[] sharedArgs) {
+        Locale defaultLocale = LocaleHolder.getLocale();
+        ZoneId defaultZone = TimeZoneHolder.getZone();
+        try {
+            Map<Object, Object> shared = bind(sharedArgs);
+            List<BoundRecipient> boundRecipients = new ArrayList<>(recipients.size());
+            for (Recipient recipient : recipients) {
+                Map<Object, Object> overrides = recipient.getArgs() == null || recipient.getArgs().length == 0 ?
+                        Collections.emptyMap() :
+                        bind(recipient.getArgs());
+                boundRecipients.add(new BoundRecipient(
+                        overrides,
+                        recipient.getZone() == null ? defaultZone : recipient.getZone(),
+                        recipient.getLocale() == null ? defaultLocale : recipient.getLocale()));
+            }
+            return new BoundBatch(shared, boundRecipients);
         } catch (IOException e) {
             throw new UncheckedIOException(e);
         }
-        return converter.convert(xml);
+    }
+
+    /**
+     * Render a batch with arguments from {@link #bindBatch(List, Object[])}.
+     */
+    private <T> List<T> formatBoundBatch(String templateName,
+                                         MarkupConverter<T> converter,
+                                         BoundBatch batch,
+                                         Executor executor) {
+        List<BoundRecipient> recipients = batch.recipients;
+        Map<Locale, List<Integer>> indicesByLocale = new LinkedHashMap<>();
+        for (int i = 0; i < recipients.size(); i++) {
+            indicesByLocale.computeIfAbsent(recipients.get(i).locale, k -> new ArrayList<>()).add(i);
+        }
+        if (indicesByLocale.size() <= 1) {
+            Locale locale = indicesByLocale.isEmpty() ?
+                    LocaleHolder.getLocale() :
+                    indicesByLocale.keySet().iterator().next();
+            return formatLocaleBatch(templateName, converter, recipients, executor, locale, batch.shared);
+        }
+
+        List<T> results = new ArrayList<>(Collections.nCopies(recipients.size(), null));
+        indicesByLocale.forEach((locale, indices) -> {
+            List<BoundRecipient> part = new ArrayList<>(indices.size());
+            for (int index : indices) {
+                part.add(recipients.get(index));
+            }
+            List<T> partResults = formatLocaleBatch(templateName, converter, part, executor, locale, batch.shared);
+            for (int i = 0; i < indices.size(); i++) {
+                results.set(indices.get(i), partResults.get(i));
+            }
+        });
+        return results;
+    }
+
+    /**
+     * Render a batch of recipients that all use the given locale.
+     */
+    private <T> List<T> formatLocaleBatch(String templateName,
+                                          MarkupConverter<T> converter,
+                                          List<BoundRecipient> recipients,
+                                          Executor executor,
+                                          Locale locale,
+                                          Map<Object, Object> shared) {
+        CompiledTemplate template = getTemplate(templateName, locale);
+        MarkupSkeleton skeleton = compiledMarkup && converter.createHandler() != null ? template.getSkeleton() : null;
+        boolean zoneDependent = skeleton == null || skeleton.isZoneDependent();
+
+        List<BatchGroup<T>> groups = new ArrayList<>();
+        int[] groupIndices = new int[recipients.size()];
+        Set<Object> overriddenKeys = new HashSet<>();
+        Map<BatchGroup<T>, Integer> groupsByKey = new HashMap<>();
+        for (int i = 0; i < groupIndices.length; i++) {
+            BoundRecipient recipient = recipients.get(i);
+            BatchGroup<T> group = new BatchGroup<>(
+                    recipient.overrides, zoneDependent ? recipient.zone : null, recipient.zone);
+            Integer index = groupsByKey.putIfAbsent(group, groups.size());
+            if (index == null) {
+                index = groups.size();
+                groups.add(group);
+                overriddenKeys.addAll(recipient.overrides.keySet());
+            }
+            groupIndices[i] = index;
+        }
+
+        BatchRender<T> batch = new BatchRender<>(templateName, template, converter, shared, locale, renderListener);
+        if (skeleton != null) {
+            batch.dependentHoles = skeleton.getDependentHoles(overriddenKeys);
+            boolean[] sharedHoles = new boolean[skeleton.getHoleCount()];
+            for (int i = 0; i < sharedHoles.length; i++) {
+                sharedHoles[i] = !batch.dependentHoles[i];
+            }
+            batch.sharedValues = new String[skeleton.getHoleCount()];
+            Locale previousLocale = LocaleHolder.setLocale(locale);
+            try {
+                skeleton.evaluate(Context.newContext(shared), batch.sharedValues, sharedHoles);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            } finally {
+                LocaleHolder.setLocale(previousLocale);
+            }
+        }
+
+        if (executor == null || groups.size() <= BATCH_CHUNK_SIZE) {
+            groups.forEach(batch::render);
+        } else {
+            List<CompletableFuture<Void>> chunks = new ArrayList<>();
+            for (int start = 0; start < groups.size(); start += BATCH_CHUNK_SIZE) {
+                List<BatchGroup<T>> chunk = groups.subList(start, Math.min(groups.size(), start + BATCH_CHUNK_SIZE));
+                chunks.add(CompletableFuture.runAsync(() -> chunk.forEach(batch::render), executor));
+            }
+            try {
+                CompletableFuture.allOf(chunks.toArray(new CompletableFuture[chunks.size()])).join();
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                }
+                throw e;
+            }
+        }
+
+        List<T> results = new ArrayList<>(groupIndices.length);
+        for (int index : groupIndices) {
+            results.add(groups.get(index).result);
+        }
+        return results;
+    }
+
+    /**
+     * Render the given template and pass the resulting markup events to the given handler, without producing the XML
+     * string. The render cache is not used.
+     *
+     * @return The result of the handler.
+     */
+    public <T> T formatTo(String templateName, MarkupHandler<T> handler, Object... args) {
+        RenderListener listener = renderListener;
+        RenderTimer timer = listener == null ? null : new RenderTimer();
+        try {
+            CompiledTemplate template = getTemplate(templateName, LocaleHolder.getLocale());
+            Context context = Context.newContext(bind(args));
+            if (timer != null) { timer.bound(); }
+            T result = render(template, handler, null, context, timer);
+            if (timer != null) { timer.report(listener, templateName); }
+            return result;
+        } catch (IOException e) {
+            UncheckedIOException wrapped = new UncheckedIOException(e);
+            if (listener != null) { listener.failed(templateName, wrapped); }
+            throw wrapped;
+        } catch (RuntimeException e) {
+            if (listener != null) { listener.failed(templateName, e); }
+            throw e;
+        }
+    }
+
+    /**
+     * Render the given template as XML directly to the given output instead of building a string. The render cache is
+     * not used.
+     */
+    public void formatXmlTo(String templateName, Appendable out, Object... args) {
+        RenderListener listener = renderListener;
+        RenderTimer timer = listener == null ? null : new RenderTimer();
+        try {
+            Writer writer = AppendableWriter.of(out);
+            CompiledTemplate template = getTemplate(templateName, LocaleHolder.getLocale());
+            Context context = Context.newContext(bind(args));
+            if (timer != null) { timer.bound(); }
+            apply(template, context, writer);
+            writer.flush();
+            if (timer != null) {
+                timer.applied(-1);
+                timer.report(listener, templateName);
+            }
+        } catch (IOException e) {
+            UncheckedIOException wrapped = new UncheckedIOException(e);
+            if (listener != null) { listener.failed(templateName, wrapped); }
+            throw wrapped;
+        } catch (RuntimeException e) {
+            if (listener != null) { listener.failed(templateName, e); }
+            throw e;
+        }
+    }
+
+    /**
+     * Render the given template as UTF-8 encoded XML into the given buffer, starting at its current position. The
+     * render cache is not used.
+     *
+     * @throws BufferOverflowException if the output does not fit in the remaining space of the buffer. The content of
+     *                                 the buffer after its position is undefined in that case.
+     */
+    public void formatXmlTo(String templateName, ByteBuffer out, Object... args) {
+        RenderListener listener = renderListener;
+        RenderTimer timer = listener == null ? null : new RenderTimer();
+        MarkupBuffer buffer = MarkupBuffer.acquire();
+        try {
+            CompiledTemplate template = getTemplate(templateName, LocaleHolder.getLocale());
+            Context context = Context.newContext(bind(args));
+            if (timer != null) { timer.bound(); }
+            apply(template, context, buffer);
+            if (timer != null) { timer.applied(buffer.getLength()); }
+            CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder();
+            CoderResult result = encoder.encode(CharBuffer.wrap(buffer.getChars(), 0, buffer.getLength()), out, true);
+            if (!result.isOverflow()) {
+                if (result.isError()) {
+                    result.throwException();
+                }
+                result = encoder.flush(out);
+            }
+            if (result.isOverflow()) {
+                throw new BufferOverflowException();
+            }
+            if (timer != null) {
+                timer.converted();
+                timer.report(listener, templateName);
+            }
+        } catch (IOException e) {
+            UncheckedIOException wrapped = new UncheckedIOException(e);
+            if (listener != null) { listener.failed(templateName, wrapped); }
+            throw wrapped;
+        } catch (RuntimeException e) {
+            if (listener != null) { listener.failed(templateName, e); }
+            throw e;
+        } finally {
+            buffer.release();
+        }
+    }
+
+    Map<Object, Object> bind(Object... args) throws IOException {
+        if (directBinding) {
+            return contextBinder.bindMap(args);
+        }
+        Map<Object, Object> mappedArgs = new HashMap<>();
+        if (args != null) {
+            for (Object arg : args) {
+                try (TokenBuffer buffer = new TokenBuffer(getObjectMapper(), false)) {
+                    objectMapper.writeValue(buffer, arg);
+                    mappedArgs.putAll(objectMapper.readValue(buffer.asParser(), Map.class));
+                }
+            }
+        }
+        return mappedArgs;
     }
 
     public String formatXml(String templateName, Object... args) {
         return format(templateName, XmlMarkupConverter.getInstance(), args);
     }
 
+    /**
+     * Render a template on the {@link #getRenderExecutor() render executor}. The {@link TimeZoneHolder} zone and
+     * {@link LocaleHolder} locale of the calling thread are used for rendering. The arguments are bound on the calling
+     * thread before the render is submitted, so they may be modified once this method returns. Only iterators, streams
+     * and {@link PageSource page sources}, which are bound lazily, are read on the executor.
+     */
+    public <T> CompletableFuture<T> formatAsync(String templateName, MarkupConverter<T> converter, Object... args) {
+        RenderListener listener = renderListener;
+        RenderTimer timer = listener == null ? null : new RenderTimer();
+        Map<Object, Object> mappedArgs;
+        try {
+            mappedArgs = bindArgs(templateName, listener, timer, args);
+        } catch (RuntimeException e) {
+            CompletableFuture<T> future = new CompletableFuture<>();
+            future.completeExceptionally(e);
+            return future;
+        }
+        return CompletableFuture.supplyAsync(LocaleHolder.propagate(TimeZoneHolder.propagate(() -> {
+            // time spent waiting for the executor is not part of the render
+            if (timer != null) { timer.resumed(); }
+            return formatBound(templateName, converter, mappedArgs, listener, timer);
+        })), renderExecutor);
+    }
+
+    /**
+     * Render a template as XML on the {@link #getRenderExecutor() render executor}.
+     *
+     * @see #formatAsync(String, MarkupConverter, Object...)
+     */
+    public CompletableFuture<String> formatXmlAsync(String templateName, Object... args) {
+        return formatAsync(templateName, XmlMarkupConverter.getInstance(), args);
+    }
+
+    /**
+     * Render a batch on the {@link #getRenderExecutor() render executor}. Recipients without their own zone or locale
+     * use the zone or locale of the calling thread. The shared arguments and the overrides of all recipients are bound
+     * on the calling thread before the batch is submitted, so the arguments and the recipient list may be modified once
+     * this method returns. The whole batch is rendered by a single task, since splitting it on the same executor could
+     * block all of its threads on a bounded pool.
+     *
+     * @see #formatBatch(String, MarkupConverter, List, Object...)
+     */
+    public <T> CompletableFuture<List<T>> formatBatchAsync(String templateName,
+                                                           MarkupConverter<T> converter,
+                                                           List<Recipient> recipients,
+                                                           Object... sharedArgs) {
+        BoundBatch batch;
+        try {
+            batch = bindBatch(recipients, sharedArgs);
+        } catch (RuntimeException e) {
+            CompletableFuture<List<T>> future = new CompletableFuture<>();
+            future.completeExceptionally(e);
+            return future;
+        }
+        return CompletableFuture.supplyAsync(
+                LocaleHolder.propagate(TimeZoneHolder.propagate(
+                        () -> formatBoundBatch(templateName, converter, batch, null))),
+                renderExecutor);
+    }
+
+    /**
+     * Arguments of a batch, bound by {@link #bindBatch(List, Object[])}.
+     */
+    @RequiredArgsConstructor
+    private static class BoundBatch {
+        final Map<Object, Object> shared;
+        final List<BoundRecipient> recipients;
+    }
+
+    /**
+     * A recipient with bound overrides and resolved zone and locale.
+     */
+    @RequiredArgsConstructor
+    private static class BoundRecipient {
+        final Map<Object, Object> overrides;
+        final ZoneId zone;
+        final Locale locale;
+    }
+
+    /**
+     * Recipients of a batch that produce the same output. Groups are compared by overrides and zone key; the zone key
+     * is null if the template does not depend on the zone.
+     */
+    @RequiredArgsConstructor
+    private static class BatchGroup<T> {
+        final Map<Object, Object> overrides;
+        final ZoneId zoneKey;
+        final ZoneId zone;
+        T result;
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) { return true; }
+            if (!(o instanceof BatchGroup)) { return false; }
+            BatchGroup<?> other = (BatchGroup<?>) o;
+            return overrides.equals(other.overrides) && Objects.equals(zoneKey, other.zoneKey);
+        }
+
+        @Override
+        public int hashCode() {
+            return overrides.hashCode() * 31 + Objects.hashCode(zoneKey);
+        }
+    }
+
+    /**
+     * State shared by all groups of one batch.
+     */
+    @RequiredArgsConstructor
+    private class BatchRender<T> {
+        final String templateName;
+        final CompiledTemplate template;
+        final MarkupConverter<T> converter;
+        final Map<Object, Object> shared;
+        final Locale locale;
+        final RenderListener listener;
+        /**
+         * Only set if the batch is rendered from the skeleton.
+         */
+        boolean[] dependentHoles;
+        String[] sharedValues;
+
+        void render(BatchGroup<T> group) {
+            RenderTimer timer = listener == null ? null : new RenderTimer();
+            ZoneId previousZone = TimeZoneHolder.setZone(group.zone);
+            Locale previousLocale = LocaleHolder.setLocale(locale);
+            try {
+                Map<Object, Object> args = shared;
+                if (!group.overrides.isEmpty()) {
+                    args = new HashMap<>(shared);
+                    args.putAll(group.overrides);
+                }
+                if (timer != null) { timer.bound(); }
+                if (sharedValues == null) {
+                    group.result = TemplateManager.this.render(template, converter, Context.newContext(args), timer);
+                } else {
+                    MarkupSkeleton skeleton = template.getSkeleton();
+                    String[] values = sharedValues.clone();
+                    skeleton.evaluate(Context.newContext(args), values, dependentHoles);
+                    if (timer != null) { timer.applied(-1); }
+                    group.result = skeleton.replay(values, converter.createHandler());
+                    if (timer != null) { timer.converted(); }
+                }
+                if (timer != null) { timer.report(listener, templateName); }
+            } catch (IOException e) {
+                UncheckedIOException wrapped = new UncheckedIOException(e);
+                if (listener != null) { listener.failed(templateName, wrapped); }
+                throw wrapped;
+            } catch (RuntimeException e) {
+                if (listener != null) { listener.failed(templateName, e); }
+                throw e;
+            } finally {
+                TimeZoneHolder.setZone(previousZone);
+                LocaleHolder.setLocale(previousLocale);
+            }
+        }
+    }
+
+    @Value
+    private static class LocalizedName {
+        String name;
+        Locale locale;
+    }
+
+    /**
+     * Phase timestamps of a single render. Only created when a {@link RenderListener} is set.
+     */
+    private static class RenderTimer {
+        private long last = System.nanoTime();
+        private long bindNanos;
+        private long applyNanos;
+        private long convertNanos;
+        private int outputLength = -1;
+        private boolean cached;
+
+        private long lap() {
+            long now = System.nanoTime();
+            long time = now - last;
+            last = now;
+            return time;
+        }
+
+        void bound() {
+            bindNanos = lap();
+        }
+
+        void resumed() {
+            last = System.nanoTime();
+        }
+
+        void applied(int outputLength) {
+            applyNanos = lap();
+            this.outputLength = outputLength;
+        }
+
+        void converted() {
+            convertNanos = lap();
+        }
+
+        void report(RenderListener listener, String templateName) {
+            listener.rendered(templateName, cached, bindNanos, applyNanos, convertNanos, outputLength);
+        }
+    }
 }
@@ -0,0 +1,52 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package at.yawk.cricket.template;
+
+import lombok.Value;
+
+/**
+ * A problem found by {@link TemplateManager#validateAll()}.
+ *
+ * @author yawkat
+ */
+@Value
+public class TemplateProblem {
+    String templateName;
+    Kind kind;
+    String message;
+
+    public enum Kind {
+        /**
+         * Handlebars failed to compile the template.
+         */
+        COMPILE_ERROR,
+        /**
+         * The template includes a partial that does not exist.
+         */
+        MISSING_PARTIAL,
+        /**
+         * The markup could not be parsed at all.
+         */
+        INVALID_MARKUP,
+        /**
+         * An element that none of the converters understand.
+         */
+        UNKNOWN_TAG,
+        /**
+         * A {@code color} attribute with a name that is not a minecraft color. Converters ignore such colors.
+         */
+        UNKNOWN_COLOR,
+        /**
+         * An event {@code action} that is not a minecraft action. Rendering such an event fails.
+         */
+        UNKNOWN_ACTION,
+        /**
+         * An event without {@code action} or {@code value} attribute. Rendering such an event fails.
+         */
+        MISSING_ATTRIBUTE,
+    }
+}
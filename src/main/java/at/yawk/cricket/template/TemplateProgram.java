@@ -0,0 +1,550 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package at.yawk.cricket.template;
+
+import com.github.jknack.handlebars.Context;
+import com.github.jknack.handlebars.EscapingStrategy;
+import com.github.jknack.handlebars.Handlebars;
+import com.github.jknack.handlebars.HandlebarsError;
+import com.github.jknack.handlebars.HandlebarsException;
+import com.github.jknack.handlebars.Helper;
+import com.github.jknack.handlebars.Lambda;
+import com.github.jknack.handlebars.Options;
+import com.github.jknack.handlebars.TagType;
+import com.github.jknack.handlebars.Template;
+import com.github.jknack.handlebars.helper.EachHelper;
+import com.github.jknack.handlebars.helper.IfHelper;
+import com.github.jknack.handlebars.helper.UnlessHelper;
+import com.github.jknack.handlebars.io.TemplateSource;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+import lombok.RequiredArgsConstructor;
+
+/**
+ * A handlebars template compiled from its syntax tree into a tree of specialized nodes, so rendering does not go
+ * through the generic interpreter for the common cases:
+ *
+ * <ul>
+ * <li>Literal text is written as one string per run of text.</li>
+ * <li>Variables like {@code {{a.b.c}}} are looked up with plain {@link Map#get(Object)} calls on the bound arguments,
+ * with the path split at compile time.</li>
+ * <li>Inline helper calls ({@code time}, the {@code StringHelpers}, ...) call the helper directly with parameters that
+ * were parsed at compile time.</li>
+ * <li>{@code #each}, {@code #if} and {@code #unless} sections iterate and branch directly and build the same contexts
+ * as the built-in helpers.</li>
+ * </ul>
+ *
+ * Everything else (partials, block helpers like {@code readableIndex}, lambdas, unusual paths) is applied by the
+ * original handlebars node, and so is any lookup that the fast path cannot resolve, so the output is always the same as
+ * the interpreter's. If the syntax tree is not understood at all, {@link #compile(Handlebars, Template)} returns null
+ * and the template is interpreted.
+ *
+ * @author yawkat
+ */
+class TemplateProgram {
+    private static final String INTERNAL = "com.github.jknack.handlebars.internal.";
+
+    /**
+     * Paths that can be resolved by walking maps: dot-separated plain names.
+     */
+    private static final Pattern SIMPLE_PATH = Pattern.compile("[a-zA-Z_$][\\w$-]*(\\.[a-zA-Z_$][\\w$-]*)*");
+
+    private static final Object[] NO_PARAMS = new Object[0];
+
+    private final Node root;
+    /**
+     * The source pushed on the invocation stack while the template is applied, like handlebars does for loaded
+     * templates, or null.
+     */
+    private final TemplateSource source;
+
+    private TemplateProgram(Node root, TemplateSource source) {
+        this.root = root;
+        this.source = source;
+    }
+
+    /**
+     * Compile the given handlebars template, or return null if its syntax tree is not understood.
+     */
+    static TemplateProgram compile(Handlebars handlebars, Template template) {
+        try {
+            TemplateSource source = null;
+            if (isForwarding(template.getClass())) {
+                if (template.getClass().getName().equals(INTERNAL + "ForwardingTemplate")) {
+                    template = (Template) getField(template, "template");
+                } else {
+                    // loaded templates record their source on the invocation stack, anything else is unknown
+                    source = findSource(template);
+                    if (source == null) {
+                        return null;
+                    }
+                    template = (Template) getField(template, "template");
+                }
+            }
+            return new TemplateProgram(compileNode(handlebars, template), source);
+        } catch (ReflectiveOperationException | RuntimeException | IOException e) {
+            return null;
+        }
+    }
+
+    private static boolean isForwarding(Class<?> type) {
+        for (Class<?> c = type; c != null; c = c.getSuperclass()) {
+            if (c.getName().equals(INTERNAL + "ForwardingTemplate")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static TemplateSource findSource(Template template) throws IllegalAccessException {
+        TemplateSource source = null;
+        for (Field field : template.getClass().getDeclaredFields()) {
+            if (field.getType() == TemplateSource.class) {
+                if (source != null) {
+                    return null;
+                }
+                field.setAccessible(true);
+                source = (TemplateSource) field.get(template);
+            }
+        }
+        return source;
+    }
+
+    void apply(Context context, Writer writer) throws IOException {
+        if (source == null) {
+            root.apply(context, writer);
+            return;
+        }
+        LinkedList<TemplateSource> invocationStack = context.data(Context.INVOCATION_STACK);
+        invocationStack.addLast(source);
+        try {
+            root.apply(context, writer);
+        } finally {
+            if (!invocationStack.isEmpty()) {
+                invocationStack.removeLast();
+            }
+        }
+    }
+
+    String apply(Context context) throws IOException {
+        StringBuilder builder = new StringBuilder();
+        apply(context, new AppendableWriter(builder));
+        return builder.toString();
+    }
+
+    private static Node compileNode(Handlebars handlebars, Template template)
+            throws ReflectiveOperationException, IOException {
+        switch (template.getClass().getName()) {
+        case INTERNAL + "TemplateList":
+            return compileList(handlebars, (Iterable<?>) template);
+        case INTERNAL + "Text":
+            return new Literal(literalText(template));
+        case INTERNAL + "Variable":
+            return compileVariable(handlebars, template);
+        case INTERNAL + "Block":
+            return compileBlock(handlebars, template);
+        default:
+            return new Interpreted(template);
+        }
+    }
+
+    private static Node compileList(Handlebars handlebars, Iterable<?> templates)
+            throws ReflectiveOperationException, IOException {
+        List<Node> nodes = new ArrayList<>();
+        StringBuilder text = null;
+        for (Object item : templates) {
+            Node node = compileNode(handlebars, (Template) item);
+            if (node instanceof Literal) {
+                // merge adjacent text
+                if (text == null) {
+                    text = new StringBuilder();
+                }
+                text.append(((Literal) node).text);
+                continue;
+            }
+            if (text != null) {
+                nodes.add(new Literal(text.toString()));
+                text = null;
+            }
+            nodes.add(node);
+        }
+        if (text != null) {
+            nodes.add(new Literal(text.toString()));
+        }
+        return nodes.size() == 1 ? nodes.get(0) : new Sequence(nodes.toArray(new Node[nodes.size()]));
+    }
+
+    /**
+     * The output of a text node, which does not depend on the context.
+     */
+    private static String literalText(Template text) throws IOException {
+        Context context = Context.newContext(Collections.emptyMap());
+        try {
+            return text.apply(context);
+        } finally {
+            context.destroy();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Node compileVariable(Handlebars handlebars, Template variable) throws ReflectiveOperationException {
+        String name = (String) invoke(variable, "name");
+        TagType type = (TagType) getField(variable, "type");
+        List<Object> params = (List<Object>) getField(variable, "params");
+        Map<String, Object> hash = (Map<String, Object>) getField(variable, "hash");
+        EscapingStrategy escapingStrategy = (EscapingStrategy) getField(variable, "escapingStrategy");
+        if (getField(variable, "constant") != null || !hash.isEmpty()) {
+            return new Interpreted(variable);
+        }
+        boolean escape = type == TagType.VAR;
+
+        Helper<Object> helper = handlebars.helper(name);
+        if (helper == null) {
+            if (!params.isEmpty()) {
+                return new Interpreted(variable);
+            }
+            return new Variable(new Reference(name), escape, escapingStrategy, variable);
+        }
+
+        Param[] compiledParams = compileParams(handlebars, params);
+        if (compiledParams == null) {
+            return new Interpreted(variable);
+        }
+        return new HelperCall(handlebars, name, type, helper, compiledParams, escape, escapingStrategy, variable);
+    }
+
+    private static Node compileBlock(Handlebars handlebars, Template block)
+            throws ReflectiveOperationException, IOException {
+        Template body = (Template) invoke(block, "body");
+        if (body == null) {
+            return new Sequence(new Node[0]);
+        }
+        String name = (String) invoke(block, "name");
+        List<?> params = (List<?>) getField(block, "params");
+        Map<?, ?> hash = (Map<?, ?>) getField(block, "hash");
+        if ((Boolean) invoke(block, "inverted") || params.size() != 1 || !hash.isEmpty() ||
+            !(params.get(0) instanceof String) || isQuoted((String) params.get(0))) {
+            return new Interpreted(block);
+        }
+        Reference param = new Reference((String) params.get(0));
+        Helper<Object> helper = handlebars.helper(name);
+        Template inverse = (Template) invoke(block, "inverse");
+        Node compiledBody = compileNode(handlebars, body);
+        Node compiledInverse = inverse == null ? null : compileNode(handlebars, inverse);
+        if (helper == EachHelper.INSTANCE) {
+            return new Each(param, compiledBody, compiledInverse, block);
+        } else if (helper == IfHelper.INSTANCE) {
+            return new Conditional(param, false, compiledBody, compiledInverse);
+        } else if (helper == UnlessHelper.INSTANCE) {
+            return new Conditional(param, true, compiledBody, compiledInverse);
+        } else {
+            return new Interpreted(block);
+        }
+    }
+
+    /**
+     * Parse the raw parameters of a helper call like handlebars does on every call, or return null if any of them is
+     * not supported.
+     */
+    private static Param[] compileParams(Handlebars handlebars, List<Object> params) {
+        if (handlebars.stringParams()) {
+            // unresolved references are passed as their name in this mode
+            return null;
+        }
+        Param[] compiled = new Param[params.size()];
+        for (int i = 0; i < compiled.length; i++) {
+            Object param = params.get(i);
+            if (param instanceof Integer || param instanceof Boolean) {
+                compiled[i] = new Constant(param);
+            } else if (param instanceof String) {
+                String string = (String) param;
+                compiled[i] = isQuoted(string) ?
+                        new Constant(string.subSequence(1, string.length() - 1)) :
+                        new Reference(string);
+            } else {
+                return null;
+            }
+        }
+        return compiled;
+    }
+
+    /**
+     * Wrap an exception thrown while applying the given node with the node's template position, like handlebars does
+     * for the nodes it applies itself.
+     */
+    private static HandlebarsException atPosition(Template node, Exception e) {
+        int[] position = node.position();
+        String reason = e.toString();
+        String message = node.filename() + ":" + position[0] + ":" + position[1] + ": " + reason;
+        HandlebarsException wrapped = new HandlebarsException(
+                new HandlebarsError(node.filename(), position[0], position[1], reason, node.text(), message), e);
+        wrapped.setStackTrace(e.getStackTrace());
+        return wrapped;
+    }
+
+    private static boolean isQuoted(String param) {
+        return (param.startsWith("\"") && param.endsWith("\"")) || (param.startsWith("'") && param.endsWith("'"));
+    }
+
+    private static Object invoke(Object target, String name) throws ReflectiveOperationException {
+        Method method = target.getClass().getMethod(name);
+        method.setAccessible(true);
+        return method.invoke(target);
+    }
+
+    private static Object getField(Object target, String name) throws ReflectiveOperationException {
+        for (Class<?> c = target.getClass(); c != null; c = c.getSuperclass()) {
+            try {
+                Field field = c.getDeclaredField(name);
+                field.setAccessible(true);
+                return field.get(target);
+            } catch (NoSuchFieldException ignored) {
+            }
+        }
+        throw new NoSuchFieldException(name);
+    }
+
+    private interface Node {
+        void apply(Context context, Writer writer) throws IOException;
+    }
+
+    private interface Param {
+        Object resolve(Context context);
+    }
+
+    @RequiredArgsConstructor
+    private static class Constant implements Param {
+        private final Object value;
+
+        @Override
+        public Object resolve(Context context) {
+            return value;
+        }
+    }
+
+    /**
+     * A value looked up in the context by name.
+     */
+    private static class Reference implements Param {
+        private final String name;
+        /**
+         * Segments of the name if it is a {@link #SIMPLE_PATH}, otherwise null.
+         */
+        private final String[] path;
+
+        Reference(String name) {
+            this.name = name;
+            this.path = SIMPLE_PATH.matcher(name).matches() && !name.equals("this") && !name.startsWith("this.") ?
+                    name.split("\\.") :
+                    null;
+        }
+
+        @Override
+        public Object resolve(Context context) {
+            if (path != null) {
+                // the map resolver comes first, so a value found this way is what handlebars finds too
+                Object value = context.model();
+                for (String segment : path) {
+                    if (!(value instanceof Map)) {
+                        value = null;
+                        break;
+                    }
+                    value = ((Map<?, ?>) value).get(segment);
+                    if (value == null) {
+                        break;
+                    }
+                }
+                if (value != null) {
+                    return value;
+                }
+            }
+            // parent contexts, data, java beans, ...
+            return context.get(name);
+        }
+    }
+
+    @RequiredArgsConstructor
+    private static class Literal implements Node {
+        private final String text;
+
+        @Override
+        public void apply(Context context, Writer writer) throws IOException {
+            writer.write(text);
+        }
+    }
+
+    @RequiredArgsConstructor
+    private static class Sequence implements Node {
+        private final Node[] nodes;
+
+        @Override
+        public void apply(Context context, Writer writer) throws IOException {
+            for (Node node : nodes) {
+                node.apply(context, writer);
+            }
+        }
+    }
+
+    /**
+     * A part of the template that is applied by handlebars.
+     */
+    @RequiredArgsConstructor
+    private static class Interpreted implements Node {
+        private final Template template;
+
+        @Override
+        public void apply(Context context, Writer writer) throws IOException {
+            template.apply(context, writer);
+        }
+    }
+
+    @RequiredArgsConstructor
+    private static class Variable implements Node {
+        private final Reference reference;
+        private final boolean escape;
+        private final EscapingStrategy escapingStrategy;
+        private final Template original;
+
+        @Override
+        public void apply(Context context, Writer writer) throws IOException {
+            Object value = reference.resolve(context);
+            if (value == null || value instanceof Lambda) {
+                // helperMissing and lambdas
+                original.apply(context, writer);
+                return;
+            }
+            String string = value.toString();
+            boolean escapeString = escape && !(value instanceof Handlebars.SafeString);
+            writer.append(escapeString ? escapingStrategy.escape(string) : string);
+        }
+    }
+
+    @RequiredArgsConstructor
+    private static class HelperCall implements Node {
+        private final Handlebars handlebars;
+        private final String name;
+        private final TagType type;
+        private final Helper<Object> helper;
+        private final Param[] params;
+        private final boolean escape;
+        private final EscapingStrategy escapingStrategy;
+        private final Template original;
+
+        @Override
+        public void apply(Context context, Writer writer) throws IOException {
+            Object[] helperParams = NO_PARAMS;
+            if (params.length > 1) {
+                helperParams = new Object[params.length - 1];
+                for (int i = 1; i < params.length; i++) {
+                    helperParams[i - 1] = params[i].resolve(context);
+                }
+            }
+            Options options = new Options.Builder(handlebars, name, type, context, Template.EMPTY)
+                    .setParams(helperParams)
+                    .setHash(Collections.emptyMap())
+                    .build();
+            options.data(Context.PARAM_SIZE, params.length);
+            Object helperContext = params.length == 0 ? context.model() : params[0].resolve(context);
+            CharSequence result;
+            try {
+                result = helper.apply(helperContext, options);
+            } catch (HandlebarsException e) {
+                throw e;
+            } catch (IOException | RuntimeException e) {
+                throw atPosition(original, e);
+            }
+            if (escape && !(result instanceof Handlebars.SafeString)) {
+                writer.append(escapingStrategy.escape(result));
+            } else if (result != null) {
+                writer.append(result);
+            }
+        }
+    }
+
+    /**
+     * An {@code #each} section. Iterates lists and other iterables directly, anything else is left to the helper.
+     */
+    @RequiredArgsConstructor
+    private static class Each implements Node {
+        private final Reference param;
+        private final Node body;
+        /**
+         * May be null.
+         */
+        private final Node inverse;
+        private final Template original;
+
+        @Override
+        public void apply(Context context, Writer writer) throws IOException {
+            Object value = param.resolve(context);
+            if (!(value instanceof Iterable) && value != null) {
+                original.apply(context, writer);
+                return;
+            }
+            context.data(Context.PARAM_SIZE, 1);
+            if (value == null) {
+                return;
+            }
+            if (Handlebars.Utils.isEmpty(value)) {
+                if (inverse != null) {
+                    inverse.apply(context, writer);
+                }
+                return;
+            }
+            // same data as EachHelper
+            Iterator<?> iterator = ((Iterable<?>) value).iterator();
+            int index = 0;
+            while (iterator.hasNext()) {
+                Object item = iterator.next();
+                boolean even = index % 2 == 0;
+                Context itemContext = Context.newBuilder(context, item)
+                        .combine("@index", index)
+                        .combine("@first", index == 0 ? "first" : "")
+                        .combine("@last", iterator.hasNext() ? "" : "last")
+                        .combine("@odd", even ? "" : "odd")
+                        .combine("@even", even ? "even" : "")
+                        .build();
+                body.apply(itemContext, writer);
+                itemContext.destroy();
+                index++;
+            }
+        }
+    }
+
+    /**
+     * An {@code #if} or {@code #unless} section.
+     */
+    @RequiredArgsConstructor
+    private static class Conditional implements Node {
+        private final Reference param;
+        private final boolean negated;
+        private final Node body;
+        /**
+         * May be null.
+         */
+        private final Node inverse;
+
+        @Override
+        public void apply(Context context, Writer writer) throws IOException {
+            boolean falsy = Handlebars.Utils.isEmpty(param.resolve(context));
+            context.data(Context.PARAM_SIZE, 1);
+            Node branch = falsy != negated ? inverse : body;
+            if (branch != null) {
+                branch.apply(context, writer);
+            }
+        }
+    }
+}
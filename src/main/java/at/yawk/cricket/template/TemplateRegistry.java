@@ -0,0 +1,214 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package at.yawk.cricket.template;
+
+import com.github.jknack.handlebars.Handlebars;
+import com.github.jknack.handlebars.Helper;
+import com.github.jknack.handlebars.Template;
+import com.github.jknack.handlebars.io.TemplateLoader;
+import com.github.jknack.handlebars.io.TemplateSource;
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import lombok.RequiredArgsConstructor;
+import lombok.Value;
+
+/**
+ * Shares template sources and parsed templates between {@link TemplateManager}s that load the same template packs. Can
+ * be passed to {@link TemplateManager#setTemplateRegistry(TemplateRegistry)}.
+ *
+ * Template strings are interned, so identical sources of different managers are held once. Parsed templates are
+ * shared by name and content and reference counted: each manager holds one reference per loaded template, which it
+ * gives up when the template is recompiled or the manager is {@link TemplateManager#close() closed}. Templates that
+ * no manager references anymore are dropped.
+ *
+ * Helpers and overrides stay per manager. Shared templates are parsed by a handlebars instance of the registry that
+ * looks up helpers and partials in the manager that is currently compiling or rendering on the calling thread. The
+ * compiled programs and markup skeletons depend on the helpers of a manager and are not shared.
+ *
+ * @author yawkat
+ */
+public class TemplateRegistry {
+    /**
+     * The handlebars instance of the manager that is using a shared template on this thread.
+     */
+    private static final ThreadLocal<Handlebars> CURRENT = new ThreadLocal<>();
+
+    private final Handlebars handlebars = new Handlebars() {
+        @Override
+        public <C> Helper<C> helper(String name) {
+            return current().helper(name);
+        }
+
+        @Override
+        public TemplateLoader getLoader() {
+            return current().getLoader();
+        }
+    };
+
+    private final Interner<String> strings = Interners.newWeakInterner();
+
+    /**
+     * Guarded by itself.
+     */
+    private final Map<Key, Entry> entries = new HashMap<>();
+    private int managerCount = 0;
+
+    private static Handlebars current() {
+        Handlebars handlebars = CURRENT.get();
+        if (handlebars == null) {
+            throw new IllegalStateException("Shared template used outside of its manager");
+        }
+        return handlebars;
+    }
+
+    /**
+     * Make shared templates use the helpers and partials of the given handlebars instance on this thread.
+     *
+     * @return The previous instance, to be passed to {@link #exit(Handlebars)}.
+     */
+    static Handlebars enter(Handlebars handlebars) {
+        Handlebars previous = CURRENT.get();
+        CURRENT.set(handlebars);
+        return previous;
+    }
+
+    static void exit(Handlebars previous) {
+        if (previous == null) {
+            CURRENT.remove();
+        } else {
+            CURRENT.set(previous);
+        }
+    }
+
+    String intern(String string) {
+        return strings.intern(string);
+    }
+
+    void addManager() {
+        synchronized (entries) {
+            managerCount++;
+        }
+    }
+
+    void removeManager() {
+        synchronized (entries) {
+            managerCount--;
+        }
+    }
+
+    /**
+     * Get the shared template for the given source and add a reference to it, parsing it if no manager holds it yet.
+     * Must be called between {@link #enter(Handlebars)} and {@link #exit(Handlebars)}.
+     */
+    Entry acquire(TemplateSource source) throws IOException {
+        Key key = new Key(source.filename(), intern(source.content()));
+        synchronized (entries) {
+            Entry entry = entries.get(key);
+            if (entry != null) {
+                entry.references++;
+                return entry;
+            }
+        }
+        // parse outside of the lock; if another manager parsed the same source meanwhile, its template is used
+        Template template = handlebars.compile(source);
+        synchronized (entries) {
+            Entry entry = entries.computeIfAbsent(key, k -> new Entry(k, template));
+            entry.references++;
+            return entry;
+        }
+    }
+
+    void release(Entry entry) {
+        synchronized (entries) {
+            if (--entry.references == 0) {
+                entries.remove(entry.key, entry);
+            }
+        }
+    }
+
+    /**
+     * Memory use of this registry. Parsed templates are roughly proportional in size to their source, so the source
+     * lengths also show how much of the parsed templates is shared.
+     */
+    public Stats getStats() {
+        synchronized (entries) {
+            long references = 0;
+            long sourceCharCount = 0;
+            long savedSourceCharCount = 0;
+            for (Entry entry : entries.values()) {
+                int length = entry.key.content.length();
+                references += entry.references;
+                sourceCharCount += length;
+                savedSourceCharCount += (long) (entry.references - 1) * length;
+            }
+            return new Stats(managerCount, entries.size(), references, sourceCharCount, savedSourceCharCount);
+        }
+    }
+
+    @Value
+    public static class Stats {
+        /**
+         * Estimated size of a string apart from its characters: the string object and the header of its char array.
+         */
+        private static final int STRING_OVERHEAD_BYTES = 40;
+
+        /**
+         * Number of managers that use this registry.
+         */
+        int managerCount;
+        /**
+         * Number of distinct parsed templates.
+         */
+        int templateCount;
+        /**
+         * Number of templates held by all managers together.
+         */
+        long referenceCount;
+        /**
+         * Total number of characters in the sources of the distinct templates.
+         */
+        long sourceCharCount;
+        /**
+         * Total number of source characters that would be held and parsed again without sharing.
+         */
+        long savedSourceCharCount;
+
+        /**
+         * Estimated heap size of the sources of the distinct templates, at two bytes per character.
+         */
+        public long getEstimatedSourceBytes() {
+            return sourceCharCount * 2 + (long) templateCount * STRING_OVERHEAD_BYTES;
+        }
+
+        /**
+         * Estimated heap size of the sources that would be held again without sharing. Does not include the parsed
+         * templates, which are roughly proportional to their source.
+         */
+        public long getEstimatedSavedSourceBytes() {
+            return savedSourceCharCount * 2 + (referenceCount - templateCount) * STRING_OVERHEAD_BYTES;
+        }
+    }
+
+    @Value
+    private static class Key {
+        String name;
+        String content;
+    }
+
+    /**
+     * A shared template and the number of references to it. The count is guarded by {@link #entries}.
+     */
+    @RequiredArgsConstructor
+    static class Entry {
+        private final Key key;
+        final Template template;
+        private int references = 0;
+    }
+}
@@ -3,25 +3,43 @@ package at.yawk.cricket.template;
 import com.github.jknack.handlebars.Helper;
 import com.github.jknack.handlebars.Options;
 import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.time.DateTimeException;
 import java.time.Instant;
+import java.time.LocalDateTime;
 import java.time.OffsetDateTime;
+import java.time.YearMonth;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
 import java.time.ZonedDateTime;
 import java.time.format.DateTimeFormatter;
 import java.time.format.DateTimeParseException;
+import java.time.temporal.ChronoField;
+import java.time.temporal.TemporalAccessor;
+import java.time.temporal.TemporalQueries;
 import java.util.Arrays;
+import java.util.Date;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Function;
+import lombok.Value;
 
 /**
- * Converts a string timestamp to the given format.
+ * Converts a timestamp to the given format. The timestamp may be a string in one of the ISO formats produced by
+ * jackson, a number of epoch seconds (with fraction) or milliseconds (without fraction) as produced by jackson with
+ * {@code WRITE_DATES_AS_TIMESTAMPS}, a {@link TemporalAccessor} or a {@link Date}. Names in the format are written in
+ * the {@link LocaleHolder} locale, or the default format locale if that is the root locale.
  *
  * @author yawkat
  */
-class TimeFormatHelper implements Helper<String> {
+class TimeFormatHelper implements Helper<Object> {
     private static final TimeFormatHelper INSTANCE = new TimeFormatHelper();
 
     /**
-     * Support all formats produced by jackson.
+     * Support all formats produced by jackson. Only used for strings that {@link #parseIso(String)} does not accept.
      *
      * @see com.fasterxml.jackson.datatype.jsr310.deser.InstantDeserializer
      */
@@ -31,8 +49,17 @@ class TimeFormatHelper implements Helper<String> {
             s -> OffsetDateTime.from(DateTimeFormatter.ISO_OFFSET_DATE_TIME.parse(s)).toZonedDateTime()
     );
 
+    /**
+     * Whether {@link DateTimeFormatter#ISO_INSTANT} accepts offsets other than Z. This changed in Java 12, and
+     * {@link #parseIso(String)} must pick the same interpretation as the formatter chain.
+     */
+    private static final boolean INSTANT_ACCEPTS_OFFSET = acceptsOffset();
+
     private static final DateTimeFormatter DEFAULT_OUTPUT_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm");
 
+    private static final int MAX_CACHED_FORMATTERS = 256;
+    private static final Map<FormatterKey, DateTimeFormatter> OUTPUT_FORMATTERS = new ConcurrentHashMap<>();
+
     private TimeFormatHelper() {
     }
 
@@ -40,33 +67,233 @@ class TimeFormatHelper implements Helper<String> {
         return INSTANCE;
     }
 
+    private static boolean acceptsOffset() {
+        try {
+            DateTimeFormatter.ISO_INSTANT.parse("2000-01-01T00:00:00+01:00");
+            return true;
+        } catch (DateTimeParseException e) {
+            return false;
+        }
+    }
+
     @Override
-    public CharSequence apply(String context, Options options) throws IOException {
+    public CharSequence apply(Object context, Options options) throws IOException {
         if (context == null) {
             return null;
         }
 
-        ZonedDateTime dateTime = null;
+        DateTimeFormatter formatter;
+        if (options.params.length == 0) {
+            formatter = DEFAULT_OUTPUT_FORMAT;
+        } else if (options.params.length == 1) {
+            Locale locale = LocaleHolder.getLocale();
+            if (!LocaleHolder.isLocalized(locale)) {
+                locale = Locale.getDefault(Locale.Category.FORMAT);
+            }
+            formatter = getFormatter(options.param(0), locale);
+        } else {
+            throw new IllegalArgumentException("Too many arguments");
+        }
+        return formatter.format(toDateTime(context));
+    }
+
+    private static DateTimeFormatter getFormatter(String pattern, Locale locale) {
+        FormatterKey key = new FormatterKey(pattern, locale);
+        DateTimeFormatter formatter = OUTPUT_FORMATTERS.get(key);
+        if (formatter == null) {
+            formatter = DateTimeFormatter.ofPattern(pattern, locale);
+            if (OUTPUT_FORMATTERS.size() >= MAX_CACHED_FORMATTERS) {
+                // patterns normally come from templates, so this only happens with generated patterns
+                OUTPUT_FORMATTERS.clear();
+            }
+            OUTPUT_FORMATTERS.put(key, formatter);
+        }
+        return formatter;
+    }
+
+    private static TemporalAccessor toDateTime(Object context) {
+        if (context instanceof TemporalAccessor) {
+            TemporalAccessor temporal = (TemporalAccessor) context;
+            if (temporal instanceof ZonedDateTime) {
+                return temporal;
+            }
+            if (temporal instanceof OffsetDateTime) {
+                return ((OffsetDateTime) temporal).toZonedDateTime();
+            }
+            if (temporal.isSupported(ChronoField.INSTANT_SECONDS)) {
+                ZoneId zone = temporal.query(TemporalQueries.zone());
+                return zone == null ?
+                        Instant.from(temporal).atZone(TimeZoneHolder.getZone()) :
+                        ZonedDateTime.from(temporal);
+            }
+            // local date or time, format as-is
+            return temporal;
+        }
+        if (context instanceof Date) {
+            return ((Date) context).toInstant().atZone(TimeZoneHolder.getZone());
+        }
+        if (context instanceof Number) {
+            return toInstant((Number) context).atZone(TimeZoneHolder.getZone());
+        }
+        return parse(context.toString());
+    }
+
+    /**
+     * Interpret a number like jackson does for instants: decimals are seconds with nanosecond fraction, integers are
+     * milliseconds.
+     */
+    private static Instant toInstant(Number number) {
+        if (number instanceof Integer || number instanceof Long || number instanceof Short ||
+            number instanceof Byte || number instanceof BigInteger) {
+            return Instant.ofEpochMilli(number.longValue());
+        }
+        BigDecimal decimal = number instanceof BigDecimal ?
+                (BigDecimal) number :
+                BigDecimal.valueOf(number.doubleValue());
+        long seconds = decimal.longValue();
+        int nanos = decimal.subtract(BigDecimal.valueOf(seconds)).movePointRight(9).intValue();
+        return Instant.ofEpochSecond(seconds, nanos);
+    }
+
+    static ZonedDateTime parse(String context) {
+        ZonedDateTime dateTime = parseIso(context);
+        if (dateTime != null) {
+            return dateTime;
+        }
         for (Function<String, ZonedDateTime> inputFormatter : INPUT_FORMATTERS) {
             try {
-                dateTime = inputFormatter.apply(context);
-                break;
+                return inputFormatter.apply(context);
             } catch (DateTimeParseException ignored) {
                 // try other formatters
             }
         }
-        if (dateTime == null) {
-            throw new DateTimeParseException("Could not parse input string " + context, context, -1);
+        throw new DateTimeParseException("Could not parse input string " + context, context, -1);
+    }
+
+    /**
+     * Parse the common ISO shapes {@code yyyy-MM-ddTHH:mm[:ss[.fffffffff]]} followed by {@code Z} or an offset and an
+     * optional {@code [zone]} in a single pass, without exceptions. Returns null for anything else, including values
+     * out of range, so the input can be handed to the full formatters instead.
+     */
+    private static ZonedDateTime parseIso(String s) {
+        int length = s.length();
+        if (length < 17 || s.charAt(4) != '-' || s.charAt(7) != '-' || s.charAt(10) != 'T' || s.charAt(13) != ':') {
+            return null;
+        }
+        int year = digits(s, 0, 4);
+        int month = digits(s, 5, 2);
+        int day = digits(s, 8, 2);
+        int hour = digits(s, 11, 2);
+        int minute = digits(s, 14, 2);
+        int second = 0;
+        int nano = 0;
+        int pos = 16;
+        boolean hasSeconds = pos < length && s.charAt(pos) == ':';
+        if (hasSeconds) {
+            second = digits(s, pos + 1, 2);
+            pos += 3;
+            if (pos < length && s.charAt(pos) == '.') {
+                int start = ++pos;
+                while (pos < length && pos - start < 9 && isDigit(s.charAt(pos))) {
+                    nano = nano * 10 + (s.charAt(pos) - '0');
+                    pos++;
+                }
+                if (pos == start) {
+                    return null;
+                }
+                for (int i = pos - start; i < 9; i++) {
+                    nano *= 10;
+                }
+            }
+        }
+        if ((year | month | day | hour | minute | second) < 0 || pos >= length ||
+            month < 1 || month > 12 || day < 1 || day > 31 || hour > 23 || minute > 59 || second > 59) {
+            return null;
         }
 
-        DateTimeFormatter formatter;
-        if (options.params.length == 0) {
-            formatter = DEFAULT_OUTPUT_FORMAT;
-        } else if (options.params.length == 1) {
-            formatter = DateTimeFormatter.ofPattern(options.param(0));
+        ZoneOffset offset;
+        char sign = s.charAt(pos);
+        if (sign == 'Z') {
+            offset = ZoneOffset.UTC;
+            pos++;
+        } else if ((sign == '+' || sign == '-') && pos + 6 <= length && s.charAt(pos + 3) == ':') {
+            int offsetHours = digits(s, pos + 1, 2);
+            int offsetMinutes = digits(s, pos + 4, 2);
+            int offsetSeconds = 0;
+            pos += 6;
+            if (pos < length && s.charAt(pos) == ':') {
+                offsetSeconds = digits(s, pos + 1, 2);
+                pos += 3;
+            }
+            if ((offsetHours | offsetMinutes | offsetSeconds) < 0 ||
+                offsetHours > 18 || offsetMinutes > 59 || offsetSeconds > 59) {
+                return null;
+            }
+            int totalSeconds = offsetHours * 3600 + offsetMinutes * 60 + offsetSeconds;
+            if (totalSeconds > 18 * 3600) {
+                return null;
+            }
+            offset = ZoneOffset.ofTotalSeconds(sign == '-' ? -totalSeconds : totalSeconds);
         } else {
-            throw new IllegalArgumentException("Too many arguments");
+            return null;
         }
-        return formatter.format(dateTime);
+
+        String region = null;
+        if (pos < length) {
+            if (s.charAt(pos) != '[' || s.charAt(length - 1) != ']' || pos + 2 >= length) {
+                return null;
+            }
+            region = s.substring(pos + 1, length - 1);
+        }
+
+        if (day > 28 && day > YearMonth.of(year, month).lengthOfMonth()) {
+            return null;
+        }
+        LocalDateTime local = LocalDateTime.of(year, month, day, hour, minute, second, nano);
+        ZoneId zone;
+        try {
+            zone = region == null ? null : ZoneId.of(region);
+        } catch (DateTimeException e) {
+            return null;
+        }
+
+        if (zone != null) {
+            // ISO_ZONED_DATE_TIME keeps the instant and applies the region
+            return ZonedDateTime.ofInstant(local, offset, zone);
+        }
+        if (hasSeconds && (sign == 'Z' || INSTANT_ACCEPTS_OFFSET)) {
+            // ISO_INSTANT, which requires seconds
+            return local.toInstant(offset).atZone(TimeZoneHolder.getZone());
+        }
+        // ISO_ZONED_DATE_TIME without region
+        return ZonedDateTime.of(local, offset);
+    }
+
+    /**
+     * Parse a fixed number of decimal digits, or return -1 if any of them is not a digit or the string is too short.
+     */
+    private static int digits(String s, int start, int count) {
+        if (start + count > s.length()) {
+            return -1;
+        }
+        int value = 0;
+        for (int i = start; i < start + count; i++) {
+            char c = s.charAt(i);
+            if (!isDigit(c)) {
+                return -1;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    @Value
+    private static class FormatterKey {
+        String pattern;
+        Locale locale;
     }
 }
@@ -2,6 +2,7 @@ package at.yawk.cricket.template;
 
 import java.time.ZoneId;
 import java.util.concurrent.Callable;
+import java.util.function.Supplier;
 
 /**
  * Holder class to store the current time zone for a thread, defaulting to {@link ZoneId#systemDefault()}.
@@ -39,6 +40,22 @@ public class TimeZoneHolder {
         }
     }
 
+    /**
+     * Wrap the given task so that it runs with the time zone of the calling thread, even if it is executed on another
+     * thread later.
+     */
+    public static <V> Supplier<V> propagate(Supplier<V> task) {
+        ZoneId zone = getZone();
+        return () -> {
+            ZoneId previous = setZone(zone);
+            try {
+                return task.get();
+            } finally {
+                setZone(previous);
+            }
+        };
+    }
+
     public interface TypedCallable<V, E extends Exception> extends Callable<V> {
         @Override
         V call() throws E;
@@ -0,0 +1,252 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package at.yawk.cricket.template;
+
+import at.yawk.mcomponent.BaseComponent;
+import at.yawk.mcomponent.Component;
+import at.yawk.mcomponent.StringComponent;
+import at.yawk.mcomponent.StringComponentValue;
+import at.yawk.mcomponent.action.BaseAction;
+import at.yawk.mcomponent.action.BaseEvent;
+import at.yawk.mcomponent.style.Style;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import lombok.Getter;
+
+/**
+ * Finds the links in the text of translateUrls elements. Can be passed to
+ * {@link MinecraftMarkupConverter#withUrlScanner(UrlScanner)} and
+ * {@link MinecraftJsonMarkupConverter#withUrlScanner(UrlScanner)}.
+ *
+ * The text is split into words at spaces. A word is a link if it consists of an optional {@code scheme://} prefix
+ * with one of the configured schemes, a host of at least two letters, digits, {@code -}, {@code _} or {@code .}
+ * followed by a top level domain of two to four lower case letters, and an optional path starting with {@code /}
+ * without whitespace. With the default schemes this is the same as matching each word against
+ * {@code (?:(https?)://)?([-\w_.]{2,}\.[a-z]{2,4})(/\S*)?}, but every character is only looked at once or twice and
+ * text without links is not copied.
+ *
+ * @author yawkat
+ */
+public class UrlScanner {
+    /**
+     * Links with http or https scheme (http if it is missing) that open the url on click.
+     */
+    @Getter private static final UrlScanner defaultScanner =
+            new UrlScanner(Arrays.asList("http", "https"), "http", BaseAction.Type.OPEN_URL, "{url}");
+
+    private final String[] schemes;
+    private final String defaultScheme;
+    @Getter private final BaseAction.Type clickAction;
+    /**
+     * The literal parts of the click value template. Between each two parts, the placeholder of the same index in
+     * {@link #placeholders} is inserted.
+     */
+    private final String[] templateParts;
+    private final boolean[] placeholders;
+
+    /**
+     * @param schemes            Schemes a link may start with.
+     * @param defaultScheme      Scheme of links that have none.
+     * @param clickAction        Action of the click event of each link.
+     * @param clickValueTemplate Value of the click event. {@code {url}} is replaced with the link including its scheme,
+     *                           {@code {text}} with the link as it appears in the text.
+     */
+    public UrlScanner(Collection<String> schemes,
+                      String defaultScheme,
+                      BaseAction.Type clickAction,
+                      String clickValueTemplate) {
+        for (String scheme : schemes) {
+            if (scheme.isEmpty() || scheme.contains(" ")) {
+                throw new IllegalArgumentException("Invalid scheme '" + scheme + "'");
+            }
+        }
+        this.schemes = schemes.toArray(new String[schemes.size()]);
+        this.defaultScheme = defaultScheme;
+        this.clickAction = clickAction;
+
+        List<String> parts = new ArrayList<>();
+        List<Boolean> placeholders = new ArrayList<>();
+        int partStart = 0;
+        for (int i = clickValueTemplate.indexOf('{'); i != -1; i = clickValueTemplate.indexOf('{', i + 1)) {
+            boolean url = clickValueTemplate.startsWith("{url}", i);
+            if (url || clickValueTemplate.startsWith("{text}", i)) {
+                parts.add(clickValueTemplate.substring(partStart, i));
+                placeholders.add(url);
+                partStart = clickValueTemplate.indexOf('}', i) + 1;
+            }
+        }
+        parts.add(clickValueTemplate.substring(partStart));
+        this.templateParts = parts.toArray(new String[parts.size()]);
+        this.placeholders = new boolean[placeholders.size()];
+        for (int i = 0; i < this.placeholders.length; i++) {
+            this.placeholders[i] = placeholders.get(i);
+        }
+    }
+
+    /**
+     * Return the start of the first link that starts at or after the given index, or -1 if there is none. The index
+     * must be the start of a word, for example 0 or the end of the previous link.
+     */
+    public int findLink(CharSequence text, int from) {
+        int length = text.length();
+        int wordStart = from;
+        for (int i = from; i <= length; i++) {
+            if (i < length && text.charAt(i) != ' ') {
+                continue;
+            }
+            if (i > wordStart && hostStart(text, wordStart, i) != -1) {
+                return wordStart;
+            }
+            wordStart = i + 1;
+        }
+        return -1;
+    }
+
+    /**
+     * Return the end of the link that starts at the given index.
+     */
+    public int linkEnd(CharSequence text, int start) {
+        int i = start;
+        while (i < text.length() && text.charAt(i) != ' ') {
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * Return the click event value of the link in the given range.
+     */
+    public String clickValue(CharSequence text, int start, int end) {
+        boolean hasScheme = hostStart(text, start, end) != start;
+        StringBuilder builder = new StringBuilder(templateParts[0]);
+        for (int i = 0; i < placeholders.length; i++) {
+            if (placeholders[i] && !hasScheme) {
+                builder.append(defaultScheme).append("://");
+            }
+            builder.append(text, start, end).append(templateParts[i + 1]);
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Add the components of the given text to the given list: strings for the text between links and a component
+     * with a click event for each link. Text without links is added as a single string, empty text adds nothing.
+     */
+    public void appendComponents(CharSequence text, List<Component> components) {
+        int start = findLink(text, 0);
+        if (start == -1) {
+            if (text.length() > 0) {
+                components.add(new StringComponent(text.toString()));
+            }
+            return;
+        }
+        int plainStart = 0;
+        do {
+            if (start > plainStart) {
+                components.add(new StringComponent(text.subSequence(plainStart, start).toString()));
+            }
+            int end = linkEnd(text, start);
+            components.add(new BaseComponent(
+                    new StringComponentValue(text.subSequence(start, end).toString()),
+                    Collections.emptyList(),
+                    Style.INHERIT,
+                    Collections.singleton(new BaseEvent(
+                            BaseEvent.Type.CLICK,
+                            new BaseAction(clickAction, new StringComponent(clickValue(text, start, end))))
+                    )
+            ));
+            plainStart = end;
+            start = findLink(text, end);
+        } while (start != -1);
+        if (text.length() > plainStart) {
+            components.add(new StringComponent(text.subSequence(plainStart, text.length()).toString()));
+        }
+    }
+
+    /**
+     * Return the start of the host if the given word is a link, or -1.
+     */
+    private int hostStart(CharSequence text, int start, int end) {
+        int hostStart = start + schemePrefixLength(text, start, end);
+        int hostEnd = hostStart;
+        while (hostEnd < end && isHostChar(text.charAt(hostEnd))) {
+            hostEnd++;
+        }
+        if (hostEnd < end && text.charAt(hostEnd) != '/') {
+            return -1;
+        }
+        if (!hasTopLevelDomain(text, hostStart, hostEnd)) {
+            return -1;
+        }
+        for (int i = hostEnd; i < end; i++) {
+            if (isWhitespace(text.charAt(i))) {
+                return -1;
+            }
+        }
+        return hostStart;
+    }
+
+    /**
+     * Return the length of the {@code scheme://} prefix of the given word, or 0 if it has none.
+     */
+    private int schemePrefixLength(CharSequence text, int start, int end) {
+        for (String scheme : schemes) {
+            int length = scheme.length();
+            if (start + length + 3 <= end &&
+                text.charAt(start + length) == ':' &&
+                text.charAt(start + length + 1) == '/' &&
+                text.charAt(start + length + 2) == '/' &&
+                regionMatches(text, start, scheme)) {
+                return length + 3;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Whether the host ends with a dot and two to four lower case letters, with at least two characters before them.
+     */
+    private static boolean hasTopLevelDomain(CharSequence text, int hostStart, int hostEnd) {
+        for (int letters = 1; letters <= 4 && hostEnd - letters > hostStart; letters++) {
+            char c = text.charAt(hostEnd - letters);
+            if (c == '.') {
+                return letters >= 3 && hostEnd - letters - hostStart >= 2;
+            }
+            if (c < 'a' || c > 'z') {
+                return false;
+            }
+        }
+        int dot = hostEnd - 5;
+        return dot - hostStart >= 2 && text.charAt(dot) == '.';
+    }
+
+    private static boolean regionMatches(CharSequence text, int start, String s) {
+        for (int i = 0; i < s.length(); i++) {
+            if (text.charAt(start + i) != s.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isHostChar(char c) {
+        return (c >= 'a' && c <= 'z') ||
+               (c >= 'A' && c <= 'Z') ||
+               (c >= '0' && c <= '9') ||
+               c == '-' || c == '_' || c == '.';
+    }
+
+    /**
+     * Whitespace as matched by {@code \s}.
+     */
+    private static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == 0x0B || c == '\f' || c == '\r';
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package at.yawk.cricket.template;
+
+import static org.testng.Assert.assertEquals;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+import org.xml.sax.Attributes;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * @author yawkat
+ */
+public class MarkupLexerTest {
+    @DataProvider
+    public Object[][] wellFormed() {
+        return new Object[][]{
+                { "" },
+                { "Test" },
+                { "  leading and trailing  " },
+                { "<span color=\"red\">Red text</span>" },
+                { "a <span color=\"red\" bold=\"true\">b <span italic=\"true\">c</span> d</span> e" },
+                { "<span color='gold'>single quotes</span>" },
+                { "<span color=\"red\">\n    Red text\n\n    <lf/>\n    more\n</span>" },
+                { "line<lf/>line<lf></lf>line" },
+                { "<lf/>" },
+                { "&lt;b&gt; &amp; &quot;q&quot; &apos;a&apos;" },
+                { "<click action=\"run_command\" value=\"/t &amp; &quot;x&quot;\">run</click>" },
+                { "<click action=\"open_url\" value=\"http://cricket.yawk.at\">Best ticketing plugin</click>" },
+                { "<click shift=\"true\" action=\"suggest_command\" value=\"/msg\">msg</click>" },
+                { "<hover action=\"show_text\" value=\"Online\">Yawkat</hover>" },
+                { "<hover action=\"show_text\" value=\"&lt;span color=&quot;red&quot;&gt;nested " +
+                  "&lt;hover action=&quot;show_text&quot; value=&quot;&amp;lt;lf/&amp;gt;&quot;&gt;x&lt;/hover&gt;" +
+                  "&lt;/span&gt;\">hover me</hover>" },
+                { "<translateUrls>see http://example.com/a and yawk.at</translateUrls>" },
+                { "<span color=\"red\">unclosed" },
+                { "text first <span color=\"red\">then markup</span>" },
+                // tagsoup quirks the lexer reproduces
+                { "&#65;&#x42; numeric entities" },
+                { "<span color=\"red\">a</hover>b" },
+                { "<lf>text</lf>" },
+        };
+    }
+
+    @DataProvider
+    public Object[][] malformed() {
+        return new Object[][]{
+                { "<b>unknown element</b>" },
+                { "<span color=red>unquoted attribute</span>" },
+                { "<span color=\"red\" color=\"blue\">duplicate attribute</span>" },
+                { "&unknown; entity" },
+                { "<!-- comment -->text" },
+                { "a < b" },
+                { "<span color=\"red\"" },
+        };
+    }
+
+    @Test(dataProvider = "wellFormed")
+    public void testWellFormed(String markup) throws Exception {
+        int[] handlers = { 0 };
+        List<String> lexed = MarkupLexer.parse(markup, () -> {
+            handlers[0]++;
+            return new EventRecorder();
+        }).events;
+        assertEquals(handlers[0], 1, "lexer fell back to tagsoup");
+        assertEquals(lexed, parseTagSoup(markup));
+    }
+
+    @Test(dataProvider = "malformed")
+    public void testMalformed(String markup) throws Exception {
+        int[] handlers = { 0 };
+        List<String> lexed = MarkupLexer.parse(markup, () -> {
+            handlers[0]++;
+            return new EventRecorder();
+        }).events;
+        assertEquals(handlers[0], 2, "lexer accepted malformed markup");
+        assertEquals(lexed, parseTagSoup(markup));
+    }
+
+    @Test(dataProvider = "malformed")
+    public void testMalformedChecked(String markup) throws Exception {
+        char[] chars = markup.toCharArray();
+        List<String> lexed = MarkupLexer.parseChecked(chars, chars.length, new EventRecorder()).events;
+        assertEquals(lexed, parseTagSoup(markup));
+    }
+
+    private static List<String> parseTagSoup(String markup) throws Exception {
+        return MarkupLexer.parseTagSoup(new StringReader(markup), new EventRecorder()).events;
+    }
+
+    /**
+     * Records SAX events as strings. Adjacent character events are joined, since parsers may split text differently.
+     */
+    private static class EventRecorder extends DefaultHandler {
+        final List<String> events = new ArrayList<>();
+        private final StringBuilder text = new StringBuilder();
+
+        @Override
+        public void startDocument() {
+            events.add("startDocument");
+        }
+
+        @Override
+        public void endDocument() {
+            flushText();
+            events.add("endDocument");
+        }
+
+        @Override
+        public void startElement(String uri, String localName, String qName, Attributes attributes) {
+            flushText();
+            StringBuilder event = new StringBuilder("start ").append(uri).append(' ').append(localName)
+                    .append(' ').append(qName);
+            for (int i = 0; i < attributes.getLength(); i++) {
+                event.append(' ').append(attributes.getQName(i)).append("=[").append(attributes.getValue(i))
+                        .append(']');
+            }
+            events.add(event.toString());
+        }
+
+        @Override
+        public void endElement(String uri, String localName, String qName) {
+            flushText();
+            events.add("end " + uri + ' ' + localName + ' ' + qName);
+        }
+
+        @Override
+        public void characters(char[] ch, int start, int length) {
+            text.append(ch, start, length);
+        }
+
+        @Override
+        public void ignorableWhitespace(char[] ch, int start, int length) {
+            text.append(ch, start, length);
+        }
+
+        private void flushText() {
+            if (text.length() > 0) {
+                events.add("text [" + text + "]");
+                text.setLength(0);
+            }
+        }
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package at.yawk.cricket.template;
+
+import static org.testng.Assert.assertEquals;
+
+import at.yawk.mcomponent.Component;
+import at.yawk.mcomponent.ComponentSerializer;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.util.ArrayList;
+import java.util.List;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+/**
+ * @author yawkat
+ */
+public class MinecraftJsonMarkupConverterTest {
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    @DataProvider
+    public Object[][] markup() {
+        return new Object[][]{
+                { "" },
+                { "Test" },
+                { "  a   b \n\t c  " },
+                { "<span color=\"red\">Red <span bold=\"true\">bold <span color=\"blue\">blue</span></span>" +
+                  " red</span>" },
+                { "<span italic=\"true\" underlined=\"true\">flags</span> plain" },
+                { "a<lf/>b<lf/><lf/>c" },
+                { "<span color=\"red\">first<lf/>second <span bold=\"true\">bold<lf/>still bold</span></span>" },
+                { "<click action=\"run_command\" value=\"/t 5\">[5]</click> text" },
+                { "<click shift=\"true\" action=\"suggest_command\" value=\"/msg \">msg</click>" },
+                { "<hover action=\"show_text\" value=\"&lt;span color=&quot;red&quot;&gt;Online&lt;/span&gt;\">" +
+                  "<span color=\"gold\">Yawkat</span></hover>" },
+                { "<span color=\"red\"><hover action=\"show_text\" value=\"x\"><click action=\"open_url\" " +
+                  "value=\"http://cricket.yawk.at\">nested events</click></hover></span>" },
+                { "<translateUrls>see http://example.com/a and yawk.at, not x.y</translateUrls>" },
+                { "<span color=\"green\"><translateUrls>go to https://yawk.at <span bold=\"true\">now</span>" +
+                  "</translateUrls></span>" },
+                { "<span color=\"red\"></span><span></span>text" },
+                { "<span color=\"red\"><span bold=\"true\">merged</span></span>" },
+                { "<span><span color=\"red\">only child</span></span> after" },
+                { "a<span>b<span>c</span>d</span>e<span color=\"red\">f</span>g" },
+                { "<span color=\"red\"><span>plain</span> <span>joined</span></span>" },
+                { "<span color=\"red\"><click action=\"run_command\" value=\"/a\">click</click></span>" },
+                { "<hover action=\"show_text\" value=\"&lt;span&gt;&lt;span bold=&quot;true&quot;&gt;x&lt;/span&gt;" +
+                  "&lt;/span&gt;\"><span color=\"red\">single</span></hover>" },
+                { "<translateUrls>only http://yawk.at</translateUrls>" },
+                { "<span color=\"red\">a<lf/><span bold=\"true\"><span italic=\"true\">b</span></span></span>" },
+                { "<span color=\"red\">a <span>b</span> c<lf/>d</span> e" },
+        };
+    }
+
+    @Test(dataProvider = "markup")
+    public void testConvert(String markup) throws Exception {
+        assertEquals(parse(MinecraftJsonMarkupConverter.getInstance().convert(markup)),
+                     serialize(MinecraftMarkupConverter.getInstance().convert(markup)));
+        assertEquals(parse(MinecraftJsonMarkupConverter.getInstanceWithLinefeeds().convert(markup)),
+                     serialize(MinecraftMarkupConverter.getInstanceWithLinefeeds().convert(markup)));
+    }
+
+    @Test(dataProvider = "markup")
+    public void testHandler(String markup) throws Exception {
+        MarkupConverter<List<String>> converter = MinecraftJsonMarkupConverter.getInstance();
+        List<String> lines = MarkupLexer.parse(markup, converter::createHandler).getResult();
+        assertEquals(parse(lines), serialize(MinecraftMarkupConverter.getInstance().convert(markup)));
+    }
+
+    private static List<JsonNode> serialize(List<Component> components) throws Exception {
+        List<JsonNode> nodes = new ArrayList<>();
+        for (Component component : components) {
+            nodes.add(OBJECT_MAPPER.readTree(String.valueOf(ComponentSerializer.serialize(component))));
+        }
+        return nodes;
+    }
+
+    private static List<JsonNode> parse(List<String> lines) throws Exception {
+        List<JsonNode> nodes = new ArrayList<>();
+        for (String line : lines) {
+            nodes.add(OBJECT_MAPPER.readTree(line));
+        }
+        return nodes;
+    }
+}
@@ -0,0 +1,60 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package at.yawk.cricket.template;
+
+import static org.testng.Assert.assertEquals;
+
+import java.util.List;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+/**
+ * @author yawkat
+ */
+public class MinecraftLegacyMarkupConverterTest {
+    @DataProvider
+    public Object[][] markup() {
+        return new Object[][]{
+                { "" },
+                { "Test" },
+                { "  a   b \n\t c  " },
+                { "a <span color=\"red\">  b  </span>  c" },
+                { "<span color=\"red\">Red <span bold=\"true\">bold <span color=\"blue\">blue</span></span>" +
+                  " red</span>" },
+                { "<span italic=\"true\" underlined=\"true\">flags <span strikethrough=\"true\">more</span>" +
+                  "</span> plain" },
+                { "<span color=\"gold\" bold=\"true\" obfuscated=\"true\">all</span>" },
+                { "a<lf/>b<lf/><lf/>c" },
+                { "<span color=\"red\">first<lf/>second <span bold=\"true\">bold<lf/>still bold</span> red</span> x" },
+                { "<span color=\"red\"><span bold=\"true\"><lf/></span>after</span>" },
+                { "<click action=\"run_command\" value=\"/t 5\">[5]</click> text" },
+                { "<hover action=\"show_text\" value=\"x\"><span color=\"gold\">Yawkat</span></hover>" },
+                { "<span color=\"red\"><hover action=\"show_text\" value=\"x\"><click action=\"open_url\" " +
+                  "value=\"http://cricket.yawk.at\">nested events</click></hover> after</span>" },
+                { "<click action=\"run_command\" value=\"/a\"></click>empty event" },
+                { "<hover action=\"show_text\" value=\"x\">a<lf/>b</hover>" },
+                { "<translateUrls>see http://example.com/a and yawk.at, not x.y</translateUrls>" },
+                { "<span color=\"green\"><translateUrls>go to https://yawk.at <span bold=\"true\">now</span>" +
+                  " or later</translateUrls></span>" },
+                { "<span color=\"red\"></span><span></span>text" },
+        };
+    }
+
+    @Test(dataProvider = "markup")
+    public void testConvert(String markup) {
+        assertEquals(MinecraftLegacyMarkupConverter.getInstance().convert(markup),
+                     MinecraftLegacyMarkupConverter.COMPONENT_INSTANCE.convert(markup));
+    }
+
+    @Test(dataProvider = "markup")
+    public void testHandler(String markup) throws Exception {
+        MarkupConverter<List<String>> converter = new MinecraftLegacyMarkupConverter();
+        assertEquals(MarkupLexer.parse(markup, converter::createHandler).getResult(),
+                     MarkupLexer.parse(markup, MinecraftLegacyMarkupConverter.COMPONENT_INSTANCE::createHandler)
+                             .getResult());
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package at.yawk.cricket.template;
+
+import static org.testng.Assert.assertEquals;
+
+import at.yawk.mcomponent.BaseComponent;
+import at.yawk.mcomponent.Component;
+import at.yawk.mcomponent.ComponentMinimizer;
+import at.yawk.mcomponent.ComponentSerializer;
+import at.yawk.mcomponent.ComponentValue;
+import at.yawk.mcomponent.LegacyConverter;
+import at.yawk.mcomponent.style.Color;
+import at.yawk.mcomponent.style.Style;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+/**
+ * @author yawkat
+ */
+public class UrlScannerTest {
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    @DataProvider
+    public Object[][] text() {
+        return new Object[][]{
+                { "no links here" },
+                { "x.y" },
+                { "yawk.at" },
+                { "http://yawk.at" },
+                { "https://yawk.at/a/b?c=d" },
+                { "ftp://yawk.at" },
+                { "see http://example.com/a and yawk.at, not x.y" },
+                { "two  spaces  yawk.at  between" },
+                { " leading.com and trailing.org " },
+                { "sub.domain-name_1.example.info/path" },
+                { "toolong.abcde" },
+                { "UPPER.COM" },
+                { "a.bc/" },
+                { "tab\tyawk.at" },
+        };
+    }
+
+    @Test(dataProvider = "text")
+    public void testAppendComponents(String text) throws Exception {
+        for (Style style : new Style[]{ Style.INHERIT, Style.INHERIT.withColor(Color.RED) }) {
+            List<Component> scanned = new ArrayList<>();
+            UrlScanner.getDefaultScanner().appendComponents(text, scanned);
+            List<Component> converted = Collections.singletonList(LegacyConverter.convertUrls(text));
+            assertEquals(serialize(minimize(scanned, style)), serialize(minimize(converted, style)));
+        }
+    }
+
+    /**
+     * Build the component of a translateUrls element like {@link MinecraftMarkupConverter} does.
+     */
+    private static Component minimize(List<Component> children, Style style) {
+        return ComponentMinimizer.minimizeOne(
+                new BaseComponent(ComponentValue.EMPTY, children, style, Collections.emptySet()));
+    }
+
+    private static JsonNode serialize(Component component) throws Exception {
+        return OBJECT_MAPPER.readTree(String.valueOf(ComponentSerializer.serialize(component)));
+    }
+}